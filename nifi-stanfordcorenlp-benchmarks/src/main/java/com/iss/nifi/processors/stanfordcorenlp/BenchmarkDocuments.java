@@ -0,0 +1,79 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.gson.Gson;
+
+/**
+ * Documents of a given size, built from a news paragraph, shared by the benchmarks.
+ */
+final class BenchmarkDocuments {
+    static final String ENTITY_TYPES = "location,organization,person";
+
+    static final String JSON_PATH = "$.['title','content']";
+
+    private static final String PARAGRAPH = "ALBUQUERQUE, N.M. — A worldwide film production company is expanding to Albuquerque, according to Albuquerque Business First. The company, Production Resource Group, has worked on various movie productions including \"House of Cards.\" They plan to move into a 6,000-square-foot warehouse space in northeast Albuquerque, located at 5821 Midway Park Blvd. NE. For more information, click here.";
+
+    private BenchmarkDocuments() {
+    }
+
+    /**
+     * Plain text of the given number of paragraphs.
+     */
+    static String text(final int paragraphs) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            if (i > 0) {
+                text.append("\n\n");
+            }
+            text.append(PARAGRAPH);
+        }
+        return text.toString();
+    }
+
+    /**
+     * A JSON flow file holding the text under "content", as selected by {@link #JSON_PATH}.
+     */
+    static String json(final int paragraphs) {
+        final Map<String, Object> document = new LinkedHashMap<String, Object>();
+        document.put("id", 1234567890123L);
+        document.put("title", "Film company expanding to Albuquerque");
+        document.put("content", text(paragraphs));
+        document.put("source", "Albuquerque Business First");
+        return new Gson().toJson(document);
+    }
+
+    /**
+     * The props the benchmarks annotate with, pruned to the benchmarked entity types.
+     */
+    static Properties props() {
+        return StanfordCoreNLPService.pruneProps(new Properties(), ENTITY_TYPES);
+    }
+}
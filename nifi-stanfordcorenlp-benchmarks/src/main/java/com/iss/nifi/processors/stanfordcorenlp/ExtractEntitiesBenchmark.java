@@ -0,0 +1,81 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StanfordCoreNLPService.extractEntities with a local pipeline, for documents
+ * of one, ten and a hundred paragraphs, whole and split into chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms3g", "-Xmx3g" })
+public class ExtractEntitiesBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int paragraphs;
+
+    @Param({ "0", "4000" })
+    public int maxChunkLength;
+
+    private StanfordCoreNLPService service;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        final Properties props = BenchmarkDocuments.props();
+        service = new StanfordCoreNLPService.Builder(StanfordCoreNLPService.createPipeline(props))
+                .threads(Runtime.getRuntime().availableProcessors())
+                .maxChunkLength(maxChunkLength)
+                .build();
+        text = BenchmarkDocuments.text(paragraphs);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> extractEntities() {
+        return service.extractEntities(text, BenchmarkDocuments.ENTITY_TYPES);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole onTrigger of the processor with a local pipeline, from reading the
+ * JSON flow file to transferring it with its entities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms3g", "-Xmx3g" })
+public class OnTriggerBenchmark {
+
+    @Param({ "1", "10" })
+    public int paragraphs;
+
+    @Param({ "1", "8" })
+    public int batchSize;
+
+    private TestRunner runner;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        runner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+        runner.setProperty(StanfordCoreNLPProcessor.ENTITIES_ATTR, BenchmarkDocuments.ENTITY_TYPES);
+        runner.setProperty(StanfordCoreNLPProcessor.PATH_ATTR, BenchmarkDocuments.JSON_PATH);
+        runner.setProperty(StanfordCoreNLPProcessor.PROPS_ATTR,
+                "{\"threads\": " + Runtime.getRuntime().availableProcessors() + "}");
+        runner.setProperty(StanfordCoreNLPProcessor.BATCH_SIZE_ATTR, String.valueOf(batchSize));
+        runner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_ATTR, "false");
+        json = BenchmarkDocuments.json(paragraphs).getBytes(StandardCharsets.UTF_8);
+
+        // load the models once, outside of the measurement
+        runner.enqueue(json);
+        runner.run(1, false, true);
+        runner.clearTransferState();
+    }
+
+    @Benchmark
+    public void onTrigger() {
+        for (int i = 0; i < batchSize; i++) {
+            runner.enqueue(json);
+        }
+        runner.run(1, false, false);
+        runner.clearTransferState();
+        runner.clearProvenanceEvents();
+    }
+
+    @TearDown
+    public void tearDown() {
+        runner.run(1, true, false);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.ProtobufAnnotationSerializer;
+
+/**
+ * The protobuf work StanfordCoreNLPClientSimple does around each request:
+ * serializing the raw document it sends, and reading the annotated document
+ * the server answers with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms3g", "-Xmx3g" })
+public class ProtobufBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int paragraphs;
+
+    private final ProtobufAnnotationSerializer serializer = new ProtobufAnnotationSerializer(true);
+
+    private Annotation request;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String text = BenchmarkDocuments.text(paragraphs);
+        request = new Annotation(text);
+
+        final Annotation annotated = new Annotation(text);
+        StanfordCoreNLPService.createPipeline(BenchmarkDocuments.props()).annotate(annotated);
+        response = write(annotated);
+    }
+
+    @Benchmark
+    public byte[] serializeRequest() throws IOException {
+        return write(request);
+    }
+
+    @Benchmark
+    public Annotation deserializeResponse() throws IOException, ClassNotFoundException {
+        return serializer.read(new ByteArrayInputStream(response)).first;
+    }
+
+    private byte[] write(final Annotation annotation) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        serializer.write(annotation, os);
+        os.close();
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+/**
+ * Additive increase, multiplicative decrease limit on the requests in flight
+ * to one server. While the limit is in use and round trips hold steady, it
+ * grows by one for every limit's worth of responses. A failure, an overload
+ * answer, or recent round trips drifting well above their long run average
+ * (the server queueing requests) cut it by a tenth, at most once per limit's
+ * worth of responses. Comparing against the long run average rather than the
+ * fastest round trip lets the limit follow a changing mix of document sizes.
+ */
+public class AdaptiveLimit {
+    private static final double BACKOFF = 0.9;
+    private static final double TOLERANCE = 1.5;
+    private static final double SHORT_WEIGHT = 0.2;
+    private static final double LONG_WEIGHT = 0.02;
+
+    private final int min;
+    private final int max;
+    private double limit;
+    private double shortRtt;
+    private double longRtt;
+    // responses since the last decrease, the first one may come right away
+    private int sinceDecrease = Integer.MAX_VALUE;
+
+    public AdaptiveLimit(final int initial, final int min, final int max) {
+        this.min = Math.max(min, 1);
+        this.max = Math.max(max, this.min);
+        this.limit = Math.min(Math.max(initial, this.min), this.max);
+    }
+
+    /**
+     * The number of requests that may currently be in flight.
+     */
+    public synchronized int get() {
+        return (int) limit;
+    }
+
+    /**
+     * Adjusts the limit to a response.
+     *
+     * @param rttNanos how long the request took
+     * @param inFlight requests in flight when the response arrived, itself included
+     * @param dropped whether the request failed or the server said it was overloaded
+     */
+    public synchronized void onSample(final long rttNanos, final int inFlight, final boolean dropped) {
+        if (sinceDecrease < Integer.MAX_VALUE) {
+            sinceDecrease++;
+        }
+        if (dropped) {
+            decrease();
+            return;
+        }
+
+        if (longRtt == 0) {
+            shortRtt = rttNanos;
+            longRtt = rttNanos;
+        } else {
+            shortRtt += SHORT_WEIGHT * (rttNanos - shortRtt);
+            longRtt += LONG_WEIGHT * (rttNanos - longRtt);
+        }
+
+        if (shortRtt > TOLERANCE * longRtt) {
+            decrease();
+        } else if (inFlight * 2 >= limit) {
+            // only grow a limit that is being used, idle capacity says nothing about the server
+            limit = Math.min(max, limit + 1.0 / limit);
+        }
+    }
+
+    private void decrease() {
+        if (sinceDecrease < limit) {
+            return;
+        }
+        sinceDecrease = 0;
+        limit = Math.max(min, limit * BACKOFF);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Packs short texts into one document, so a single round trip to the server
+ * annotates them all, and splits the entity mentions found back per text by
+ * their character offsets. Texts are separated by a blank line, which ends a
+ * sentence when "ssplit.newlineIsSentenceBreak" is "two" (the CoreNLP
+ * default) or "always", and mentions never cross a sentence.
+ */
+public final class DocumentPacker {
+
+    public static final String SEPARATOR = "\n\n";
+
+    private DocumentPacker() {
+    }
+
+    /**
+     * Groups the texts, in order, into packs of at most maxLength characters
+     * with their separators. A text of maxLength or more makes a pack of its own.
+     *
+     * @return the indexes of the texts in each pack
+     */
+    public static List<List<Integer>> pack(final List<String> texts, final int maxLength) {
+        final List<List<Integer>> packs = new ArrayList<List<Integer>>();
+        List<Integer> pack = null;
+        int length = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            final int textLength = texts.get(i).length();
+            if (pack != null && length + SEPARATOR.length() + textLength <= maxLength) {
+                pack.add(i);
+                length += SEPARATOR.length() + textLength;
+                continue;
+            }
+            pack = new ArrayList<Integer>();
+            pack.add(i);
+            packs.add(pack);
+            length = textLength;
+        }
+        return packs;
+    }
+
+    /**
+     * The document the texts are packed into.
+     */
+    public static String join(final List<String> texts) {
+        return String.join(SEPARATOR, texts);
+    }
+
+    /**
+     * Splits the annotation of a packed document into one annotation per
+     * text, holding the text and the mentions that start within it, with
+     * their offsets made relative to it. A failure of the packed document is
+     * set on each of them.
+     */
+    public static List<Annotation> unpack(final Annotation packed, final List<String> texts) {
+        final int[] starts = new int[texts.size()];
+        final List<Annotation> annotations = new ArrayList<Annotation>(texts.size());
+        final List<List<CoreMap>> mentions = new ArrayList<List<CoreMap>>(texts.size());
+        int start = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            starts[i] = start;
+            start += texts.get(i).length() + SEPARATOR.length();
+            annotations.add(new Annotation(texts.get(i)));
+            mentions.add(new ArrayList<CoreMap>());
+        }
+
+        if (packed.containsKey(CoreAnnotations.ExceptionAnnotation.class)) {
+            final Throwable t = packed.get(CoreAnnotations.ExceptionAnnotation.class);
+            for (final Annotation annotation : annotations) {
+                annotation.set(CoreAnnotations.ExceptionAnnotation.class, t);
+            }
+            return annotations;
+        }
+
+        for (final CoreMap mention : mentions(packed)) {
+            final Integer begin = mention.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class);
+            if (begin == null) {
+                // without offsets there is no telling which text it came from
+                continue;
+            }
+            int i = Arrays.binarySearch(starts, begin);
+            i = i >= 0 ? i : -i - 2;
+            if (i < 0) {
+                continue;
+            }
+            mention.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class, begin - starts[i]);
+            final Integer end = mention.get(CoreAnnotations.CharacterOffsetEndAnnotation.class);
+            if (end != null) {
+                mention.set(CoreAnnotations.CharacterOffsetEndAnnotation.class, end - starts[i]);
+            }
+            mentions.get(i).add(mention);
+        }
+        for (int i = 0; i < annotations.size(); i++) {
+            annotations.get(i).set(CoreAnnotations.MentionsAnnotation.class, mentions.get(i));
+        }
+        return annotations;
+    }
+
+    /**
+     * The mentions of the document, or of each of its sentences when the
+     * document does not list them.
+     */
+    private static List<CoreMap> mentions(final Annotation annotation) {
+        final List<CoreMap> mentions = annotation.get(CoreAnnotations.MentionsAnnotation.class);
+        if (mentions != null) {
+            return mentions;
+        }
+        final List<CoreMap> sentences = annotation.get(CoreAnnotations.SentencesAnnotation.class);
+        if (sentences == null) {
+            return Collections.emptyList();
+        }
+        final List<CoreMap> sentenceMentions = new ArrayList<CoreMap>();
+        for (final CoreMap sentence : sentences) {
+            final List<CoreMap> found = sentence.get(CoreAnnotations.MentionsAnnotation.class);
+            if (found != null) {
+                sentenceMentions.addAll(found);
+            }
+        }
+        return sentenceMentions;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least recently used cache of extracted entities, keyed by a digest
+ * of the analyzed text and the requested entity types. A cache belongs to a
+ * single {@link StanfordCoreNLPService}, so all of its entries were produced
+ * with the same annotator props.
+ */
+public class EntityCache {
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries most entries held at once
+     * @param maxBytes   estimated heap the entries may take up
+     * @param ttlMillis  how long an entry is served after it was stored, 0 to keep
+     *                   entries until they are evicted
+     */
+    public EntityCache(final int maxEntries, final long maxBytes, final long ttlMillis) {
+        this.maxEntries = Math.max(maxEntries, 1);
+        this.maxBytes = Math.max(maxBytes, 1);
+        this.ttlMillis = Math.max(ttlMillis, 0);
+    }
+
+    /**
+     * Builds the cache key of a text, cheap to hold on to however long the text is.
+     */
+    public static String key(final String text, final String entityTypes) {
+        final byte[] digest = DIGEST.get().digest(text.getBytes(StandardCharsets.UTF_8));
+        return entityTypes + ":" + Base64.getEncoder().encodeToString(digest);
+    }
+
+    /**
+     * Returns the entities stored under the key, or null if there are none or they expired.
+     */
+    public Map<String, List<String>> get(final String key) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                remove(key);
+                evictions.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.entities;
+    }
+
+    /**
+     * Counts a hit served without a lookup, such as a text that is already
+     * being analyzed for the same batch.
+     */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Stores the entities under the key, evicting the least recently used entries
+     * to stay within the limits. The stored map is read-only and shared between
+     * all callers that hit it.
+     */
+    public Map<String, List<String>> put(final String key, final Map<String, List<String>> entities) {
+        final Map<String, List<String>> copy = new HashMap<String, List<String>>();
+        for (final Map.Entry<String, List<String>> e : entities.entrySet()) {
+            copy.put(e.getKey(), Collections.unmodifiableList(new ArrayList<String>(e.getValue())));
+        }
+        final Map<String, List<String>> readOnly = Collections.unmodifiableMap(copy);
+        final long expiresAt = ttlMillis == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + ttlMillis;
+        final Entry entry = new Entry(readOnly, expiresAt, estimateBytes(key, readOnly));
+
+        synchronized (this) {
+            remove(key);
+            if (entry.bytes > maxBytes) {
+                return readOnly;
+            }
+            entries.put(key, entry);
+            bytes += entry.bytes;
+
+            final Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                final Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                bytes -= evicted.bytes;
+                evictions.incrementAndGet();
+            }
+        }
+        return readOnly;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void remove(final String key) {
+        final Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.bytes;
+        }
+    }
+
+    private static long estimateBytes(final String key, final Map<String, List<String>> entities) {
+        long size = ENTRY_OVERHEAD_BYTES + STRING_OVERHEAD_BYTES + 2L * key.length();
+        for (final Map.Entry<String, List<String>> e : entities.entrySet()) {
+            size += STRING_OVERHEAD_BYTES + 2L * e.getKey().length();
+            for (final String value : e.getValue()) {
+                size += STRING_OVERHEAD_BYTES + 2L * value.length();
+            }
+        }
+        return size;
+    }
+
+    private static final class Entry {
+        private final Map<String, List<String>> entities;
+        private final long expiresAt;
+        private final long bytes;
+
+        private Entry(final Map<String, List<String>> entities, final long expiresAt, final long bytes) {
+            this.entities = entities;
+            this.expiresAt = expiresAt;
+            this.bytes = bytes;
+        }
+
+        private boolean isExpired(final long now) {
+            return now >= expiresAt;
+        }
+    }
+}
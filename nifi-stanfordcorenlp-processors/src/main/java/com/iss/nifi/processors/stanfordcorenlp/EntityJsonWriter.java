@@ -0,0 +1,190 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes extracted entities into a JSON document while it is streamed from the
+ * input to the output, one token at a time, so the document is never held in
+ * memory as a whole. Everything but the entity fields is copied as it was,
+ * numbers keep their original text.
+ */
+public final class EntityJsonWriter {
+
+    private EntityJsonWriter() {
+    }
+
+    /**
+     * Copies the JSON object read from the input to the output, replacing the
+     * top level fields named like an entity type in place and appending the
+     * entity types that were not there yet.
+     *
+     * @throws NotAnObjectException if the input does not start with a JSON object,
+     *                              before anything was written
+     * @throws IOException          if the input is not valid JSON or could not be read
+     */
+    public static void merge(final InputStream in, final OutputStream out, final Map<String, List<String>> entities)
+            throws IOException {
+        merge(in, out, entities, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Like {@link #merge(InputStream, OutputStream, Map)}, reading the input in
+     * the given character set. The output is always UTF-8.
+     */
+    public static void merge(final InputStream in, final OutputStream out, final Map<String, List<String>> entities,
+            final Charset charset) throws IOException {
+        final JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in, charset)));
+        reader.setLenient(true);
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new NotAnObjectException();
+        }
+
+        final JsonWriter writer = newWriter(out);
+        final Set<String> written = new HashSet<String>();
+        reader.beginObject();
+        writer.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            final List<String> values = entities.get(name);
+            writer.name(name);
+            if (values == null) {
+                copy(reader, writer);
+            } else {
+                reader.skipValue();
+                writeValues(writer, values);
+                written.add(name);
+            }
+        }
+        reader.endObject();
+
+        for (final Map.Entry<String, List<String>> entry : entities.entrySet()) {
+            if (!written.contains(entry.getKey())) {
+                writer.name(entry.getKey());
+                writeValues(writer, entry.getValue());
+            }
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Writes a JSON object holding only the entities.
+     */
+    public static void write(final OutputStream out, final Map<String, List<String>> entities) throws IOException {
+        final JsonWriter writer = newWriter(out);
+        writer.beginObject();
+        for (final Map.Entry<String, List<String>> entry : entities.entrySet()) {
+            writer.name(entry.getKey());
+            writeValues(writer, entry.getValue());
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    private static JsonWriter newWriter(final OutputStream out) {
+        final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        writer.setLenient(true);
+        writer.setSerializeNulls(true);
+        return writer;
+    }
+
+    private static void writeValues(final JsonWriter writer, final List<String> values) throws IOException {
+        writer.beginArray();
+        for (final String value : values) {
+            writer.value(value);
+        }
+        writer.endArray();
+    }
+
+    private static void copy(final JsonReader reader, final JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+        case BEGIN_OBJECT:
+            reader.beginObject();
+            writer.beginObject();
+            while (reader.hasNext()) {
+                writer.name(reader.nextName());
+                copy(reader, writer);
+            }
+            reader.endObject();
+            writer.endObject();
+            break;
+        case BEGIN_ARRAY:
+            reader.beginArray();
+            writer.beginArray();
+            while (reader.hasNext()) {
+                copy(reader, writer);
+            }
+            reader.endArray();
+            writer.endArray();
+            break;
+        case STRING:
+            writer.value(reader.nextString());
+            break;
+        case NUMBER:
+            writer.value(new LazilyParsedNumber(reader.nextString()));
+            break;
+        case BOOLEAN:
+            writer.value(reader.nextBoolean());
+            break;
+        case NULL:
+            reader.nextNull();
+            writer.nullValue();
+            break;
+        default:
+            throw new IOException("Unexpected JSON token " + reader.peek());
+        }
+    }
+
+    /**
+     * The input was not a JSON object, such as plain text or an array.
+     */
+    public static class NotAnObjectException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public NotAnObjectException() {
+            super("Input is not a JSON object");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The entity types of an "Entity Types" value, compiled once into a lookup
+ * from NER tag to the output field its mentions are listed under. The
+ * "location" type collects all location tags.
+ */
+public class EntityTypeMatcher {
+    static final Set<String> LOCATION_TAGS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("LOCATION", "CITY", "COUNTRY", "STATE_OR_PROVINCE")));
+
+    private static final String LOCATION_TYPE = "location";
+
+    private final List<String> types;
+    private final Map<String, String> typeByTag = new HashMap<String, String>();
+
+    public EntityTypeMatcher(final String entityTypes) {
+        this.types = Collections.unmodifiableList(Arrays.asList(entityTypes.split(",")));
+        for (final String type : types) {
+            if (!type.equals(LOCATION_TYPE)) {
+                typeByTag.put(type.toUpperCase(), type);
+            }
+        }
+        // location tags go to location even when one of them is asked for on its own
+        if (types.contains(LOCATION_TYPE)) {
+            for (final String tag : LOCATION_TAGS) {
+                typeByTag.put(tag, LOCATION_TYPE);
+            }
+        }
+    }
+
+    /**
+     * The output field for mentions with the tag, or null if the tag was not asked for.
+     */
+    public String typeOf(final String tag) {
+        return tag == null ? null : typeByTag.get(tag);
+    }
+
+    /**
+     * A result with an empty list for each entity type.
+     */
+    public Map<String, List<String>> newOutput() {
+        final Map<String, List<String>> output = new HashMap<String, List<String>>();
+        for (final String type : types) {
+            output.put(type, new ArrayList<String>());
+        }
+        return output;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.CoreNLPProtos;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Reads only the entity mentions out of a serialized server response, instead
+ * of rebuilding every token, sentence and tree of the document the way
+ * {@link edu.stanford.nlp.pipeline.ProtobufAnnotationSerializer} does. Each
+ * mention becomes a small map with its text, tag and character offsets, as
+ * entity extraction reads them.
+ *
+ * <p>The whole protobuf message is still parsed, the saving is in not turning
+ * it back into CoreLabels, sentence maps, trees and coreference chains.</p>
+ */
+public final class MentionDecoder {
+
+    private MentionDecoder() {
+    }
+
+    /**
+     * @param in   the delimited protobuf document the server answered with
+     * @param text the text that was sent, mention offsets point into it
+     */
+    public static List<CoreMap> readMentions(final InputStream in, final String text) throws IOException {
+        final CoreNLPProtos.Document document = CoreNLPProtos.Document.parseDelimitedFrom(in);
+        if (document == null) {
+            throw new IOException("Server response holds no document");
+        }
+        final String documentText = text != null ? text : document.getText();
+        final List<CoreNLPProtos.Sentence> sentences = document.getSentenceList();
+
+        final List<CoreMap> mentions = new ArrayList<CoreMap>();
+        for (final CoreNLPProtos.Sentence sentence : sentences) {
+            for (final CoreNLPProtos.NERMention mention : sentence.getMentionsList()) {
+                mentions.add(toMention(mention, sentence, documentText));
+            }
+        }
+        if (mentions.isEmpty()) {
+            // older servers only list the mentions on the document
+            for (final CoreNLPProtos.NERMention mention : document.getMentionsList()) {
+                if (mention.hasSentenceIndex() && mention.getSentenceIndex() < sentences.size()) {
+                    mentions.add(toMention(mention, sentences.get(mention.getSentenceIndex()), documentText));
+                }
+            }
+        }
+        return mentions;
+    }
+
+    private static CoreMap toMention(final CoreNLPProtos.NERMention mention, final CoreNLPProtos.Sentence sentence,
+            final String text) {
+        final CoreNLPProtos.Token first = sentence.getToken(mention.getTokenStartInSentenceInclusive());
+        final CoreNLPProtos.Token last = sentence.getToken(mention.getTokenEndInSentenceExclusive() - 1);
+
+        final CoreMap coreMap = new ArrayCoreMap(5);
+        coreMap.set(CoreAnnotations.NamedEntityTagAnnotation.class, mention.getNer());
+        coreMap.set(CoreAnnotations.EntityTypeAnnotation.class,
+                mention.hasEntityType() ? mention.getEntityType() : mention.getNer());
+        if (text != null && first.hasBeginChar() && last.hasEndChar() && last.getEndChar() <= text.length()) {
+            coreMap.set(CoreAnnotations.TextAnnotation.class, text.substring(first.getBeginChar(), last.getEndChar()));
+            coreMap.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class, first.getBeginChar());
+            coreMap.set(CoreAnnotations.CharacterOffsetEndAnnotation.class, last.getEndChar());
+        } else {
+            coreMap.set(CoreAnnotations.TextAnnotation.class, joinTokens(sentence, mention));
+        }
+        return coreMap;
+    }
+
+    private static String joinTokens(final CoreNLPProtos.Sentence sentence, final CoreNLPProtos.NERMention mention) {
+        final StringBuilder joined = new StringBuilder();
+        final int end = mention.getTokenEndInSentenceExclusive();
+        for (int i = mention.getTokenStartInSentenceInclusive(); i < end; i++) {
+            final CoreNLPProtos.Token token = sentence.getToken(i);
+            joined.append(token.getOriginalText() != null && !token.getOriginalText().isEmpty()
+                    ? token.getOriginalText() : token.getWord());
+            if (i < end - 1) {
+                joined.append(token.getAfter() != null && !token.getAfter().isEmpty() ? token.getAfter() : " ");
+            }
+        }
+        return joined.toString();
+    }
+}
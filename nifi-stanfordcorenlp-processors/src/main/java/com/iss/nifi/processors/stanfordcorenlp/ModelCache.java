@@ -0,0 +1,148 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import edu.stanford.nlp.io.IOUtils;
+import edu.stanford.nlp.pipeline.DefaultPaths;
+
+/**
+ * Keeps decompressed copies of the gzipped models a local pipeline loads in a
+ * directory, and points the props at them, so a restart reads the serialized
+ * models as they are instead of inflating them from the models jar again.
+ * Copies are named after a digest of where the model was found, so models
+ * from a new jar or a changed file get new copies.
+ */
+public final class ModelCache {
+
+    // the property naming the models of an annotator, and the models it loads when that is not set
+    private static final Map<String, String[]> MODELS = new HashMap<String, String[]>();
+    static {
+        MODELS.put("ner", new String[] { "ner.model", DefaultPaths.DEFAULT_NER_THREECLASS_MODEL + ","
+                + DefaultPaths.DEFAULT_NER_MUC_MODEL + "," + DefaultPaths.DEFAULT_NER_CONLL_MODEL });
+        MODELS.put("parse", new String[] { "parse.model", DefaultPaths.DEFAULT_PARSER_MODEL });
+        MODELS.put("depparse", new String[] { "depparse.model", DefaultPaths.DEFAULT_DEPENDENCY_PARSER_MODEL });
+        MODELS.put("sentiment", new String[] { "sentiment.model", DefaultPaths.DEFAULT_SENTIMENT_MODEL });
+        MODELS.put("truecase", new String[] { "truecase.model", DefaultPaths.DEFAULT_TRUECASE_MODEL });
+    }
+
+    private ModelCache() {
+    }
+
+    /**
+     * A copy of the props with the gzipped models of the configured annotators
+     * replaced by decompressed copies in the directory, made on first use.
+     */
+    public static Properties apply(final Properties props, final File dir) throws IOException {
+        final Properties cached = new Properties();
+        for (final String key : props.stringPropertyNames()) {
+            cached.setProperty(key, props.getProperty(key));
+        }
+
+        for (final String annotator : props.getProperty("annotators", "").split(",")) {
+            final String[] models = MODELS.get(annotator.trim());
+            if (models == null) {
+                continue;
+            }
+            final List<String> paths = new ArrayList<String>();
+            for (final String path : props.getProperty(models[0], models[1]).split(",")) {
+                final String trimmed = path.trim();
+                paths.add(trimmed.endsWith(".gz") ? decompress(trimmed, dir).getAbsolutePath() : trimmed);
+            }
+            cached.setProperty(models[0], String.join(",", paths));
+        }
+        return cached;
+    }
+
+    /**
+     * The decompressed copy of a model in the directory. The copy is written
+     * aside and moved in place, so processors starting together never read a
+     * partial one.
+     */
+    static File decompress(final String path, final File dir) throws IOException {
+        final File file = new File(dir, name(path));
+        if (file.isFile()) {
+            return file;
+        }
+
+        final File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try (final InputStream in = IOUtils.getInputStreamFromURLOrClasspathOrFileSystem(path)) {
+            Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        return file;
+    }
+
+    /**
+     * The model file name without .gz, prefixed with a digest of the model's
+     * location: the jar it is in, or the file with its size and modification time.
+     */
+    static String name(final String path) {
+        final URL resource = IOUtils.class.getClassLoader().getResource(path);
+        final String location;
+        if (resource != null) {
+            location = resource.toString();
+        } else {
+            final File file = new File(path);
+            location = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        }
+
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(location.getBytes(StandardCharsets.UTF_8));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            name.append(String.format("%02x", digest[i]));
+        }
+
+        final String base = path.substring(path.lastIndexOf('/') + 1);
+        return name.append('-').append(base, 0, base.length() - ".gz".length()).toString();
+    }
+}
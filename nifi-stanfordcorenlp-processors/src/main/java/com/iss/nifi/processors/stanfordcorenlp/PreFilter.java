@@ -0,0 +1,90 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.util.regex.Pattern;
+
+/**
+ * Cheap checks over the raw text that tell documents without any candidate
+ * entity apart, so they can be given an empty result without running the
+ * pipeline. A text is skipped when it fails any configured check.
+ */
+public class PreFilter {
+    private final int minLength;
+    private final Pattern pattern;
+    private final boolean requireCapitalized;
+
+    /**
+     * @param minLength          shortest text worth analyzing
+     * @param pattern            a pattern the text must contain a match of, such as a
+     *                           gazetteer alternation, or null
+     * @param requireCapitalized whether the text must contain a capitalized word
+     *                           that does not start a sentence, a hint of a name
+     */
+    public PreFilter(final int minLength, final Pattern pattern, final boolean requireCapitalized) {
+        this.minLength = minLength;
+        this.pattern = pattern;
+        this.requireCapitalized = requireCapitalized;
+    }
+
+    public boolean skips(final String text) {
+        if (text.length() < minLength) {
+            return true;
+        }
+        if (requireCapitalized && !hasCapitalizedWord(text)) {
+            return true;
+        }
+        return pattern != null && !pattern.matcher(text).find();
+    }
+
+    /**
+     * Whether all checks are off, so nothing would ever be skipped.
+     */
+    public boolean isEmpty() {
+        return minLength <= 0 && pattern == null && !requireCapitalized;
+    }
+
+    static boolean hasCapitalizedWord(final String text) {
+        boolean sentenceStart = true;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && !sentenceStart && Character.isUpperCase(c)) {
+                    return true;
+                }
+                inWord = true;
+                sentenceStart = false;
+            } else {
+                inWord = false;
+                if (c == '.' || c == '!' || c == '?' || c == '\n') {
+                    sentenceStart = true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -7,28 +7,90 @@ import edu.stanford.nlp.pipeline.ProtobufAnnotationSerializer;
 import edu.stanford.nlp.util.StringUtils;
 import edu.stanford.nlp.util.logging.Redwood;
 
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLEncoder;
-import java.net.HttpURLConnection;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * An annotation pipeline in spirit identical to {@link StanfordCoreNLP}, but
  * with the backend supported by a web server.
  *
+ * <p>One client is safe to share between any number of threads. Requests only
+ * touch their own annotation, the backend bookkeeping is atomic, each thread
+ * serializes with its own {@link ProtobufAnnotationSerializer}, and the number
+ * of requests in flight is bounded by the configured maximum however many
+ * threads send them.</p>
+ *
  * @author Gabor Angeli
  */
 @SuppressWarnings("FieldCanBeLocal")
 public class StanfordCoreNLPClientSimple extends AnnotationPipeline  {
 
+  /** The number of requests allowed in flight when none is configured */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+  /** The status servers answer when rate limiting, missing from {@link HttpStatus} */
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
+  /** How long to wait on a status check before considering the server dead */
+  private static final long STATUS_TIMEOUT_MILLIS = 5000;
+
+  /** How long a caller waits for capacity before looking at the limits again, in case they grew */
+  private static final long CAPACITY_WAIT_MILLIS = 50;
+
   /** A logger for this class */
   private static final Redwood.RedwoodChannels log = Redwood.channels(StanfordCoreNLPClientSimple.class);
 
@@ -51,6 +113,22 @@ public class StanfordCoreNLPClientSimple extends AnnotationPipeline  {
     public final String host;
     /** The port of the server running the CoreNLP annotators */
     public final int port;
+    /** The number of requests currently in flight against this backend */
+    public final AtomicInteger outstanding = new AtomicInteger();
+    /** False while the backend is ejected from scheduling after failing */
+    public volatile boolean healthy = true;
+    /** The annotation request target, set once by the client before the backend is scheduled */
+    public URI annotationURI;
+    /** The liveness request target, set once by the client before the backend is scheduled */
+    public URI statusURI;
+    /** The number of attempts in a row that could not reach the backend or were turned away, reset by any success */
+    public final AtomicInteger failures = new AtomicInteger();
+    /** Until this time (in millis) the circuit is open and requests fail fast */
+    public volatile long openUntil;
+    /** Set while the one request let through the half-open circuit is in flight */
+    public final AtomicBoolean trial = new AtomicBoolean();
+    /** The adaptive limit on requests in flight, set once by the client before the backend is scheduled, or null */
+    public AdaptiveLimit limit;
     public Backend(String protocol, String host, int port) {
       this.protocol = protocol;
       this.host = host;
@@ -75,7 +153,7 @@ public class StanfordCoreNLPClientSimple extends AnnotationPipeline  {
   } // end static class Backend
 
   /**
-   * The list of backends that we can schedule on.
+   * The list of backends that we can schedule on, picked by fewest requests in flight.
    * This should not generally be called directly from anywhere
    */
   public final List<Backend> backends;
@@ -83,39 +161,95 @@ public class StanfordCoreNLPClientSimple extends AnnotationPipeline  {
   /** The path on the server to connect to. */
   private final String path = "";
 
+  /** The path on the server that reports whether it is alive. */
+  private final String statusPath = "/live";
+
+  /** Rotates the starting point of the backend scan so ties are broken round robin. */
+  private final AtomicInteger nextBackend = new AtomicInteger();
+
+  /** Runs the periodic health checks and the delayed retries, neither of which blocks it. */
+  private final ScheduledExecutorService scheduler;
+
+  /** Whether failing backends are ejected until a health check re-admits them. */
+  private final boolean ejectBackends;
+
+  /** The number of times a failed request is tried again. */
+  private final int maxRetries;
+  /** The delay before the first retry, doubled on every further one. */
+  private final long retryBackoffMillis;
+  /** The cap on the delay between retries. */
+  private final long maxRetryBackoffMillis;
+
+  /** The number of failed attempts in a row that open a backend's circuit, or 0 to never open it. */
+  private final int circuitBreakerThreshold;
+  /** How long an open circuit fails requests before letting them through again. */
+  private final long circuitBreakerOpenMillis;
+
   /** The Properties file to send to the server, serialized as JSON. */
   private final String propsAsJSON;
 
-  /** The API key to authenticate with, or null */
-  private final String apiKey;
-  /** The API secret to authenticate with, or null */
-  private final String apiSecret;
+  /** The non-blocking HTTP client all annotation requests go through. */
+  private final CloseableHttpAsyncClient httpClient;
+
+  /**
+   * The HTTP client the health probes go through, with a connection of its own to each backend
+   * so a probe never waits behind the annotations for a pooled connection.
+   */
+  private final CloseableHttpAsyncClient statusClient;
+
+  /** Bounds the number of annotation requests in flight. */
+  private final Semaphore inFlight;
+
+  /** Whether each backend has an adaptive limit on the requests in flight to it. */
+  private final boolean adaptive;
+
+  /** Callers waiting for a backend under its adaptive limit wait on this. */
+  private final Object capacity = new Object();
+
+  /** The Basic authentication header built from the API key and secret, or null */
+  private final Header authorization;
+
+  /** Whether only the entity mentions of a response are read back, rather than the whole document */
+  private final boolean mentionsOnly;
+
+  /** The size from which request bodies are gzipped, or -1 to never compress them */
+  private final int compressionThreshold;
+
+  /** Whether the backends are asked to gzip their responses */
+  private final boolean responseCompression;
+
+  /** Where the serialize, round trip and deserialize times are recorded, or null */
+  private final StanfordCoreNLPMetrics metrics;
 
   /**
    * The annotation serializer responsible for translating between the wire format
-   * (protocol buffers) and the {@link Annotation} classes.
+   * (protocol buffers) and the {@link Annotation} classes, one for each of the
+   * calling and I/O dispatch threads since it is not documented as thread safe.
    */
-  private final ProtobufAnnotationSerializer serializer = new ProtobufAnnotationSerializer(true);
+  private static final ThreadLocal<ProtobufAnnotationSerializer> SERIALIZER =
+      ThreadLocal.withInitial(() -> new ProtobufAnnotationSerializer(true));
+
+  /** The content type of the serialized annotations we send. */
+  private static final ContentType PROTOBUF = ContentType.create("application/x-protobuf");
+
+  /** The content coding of compressed requests and responses. */
+  private static final String GZIP = "gzip";
 
   /**
    * The main constructor. Create a client from a properties file and a list of backends.
    * Note that this creates at least one Daemon thread.
    *
-   * @param properties The properties file, as would be passed to {@link StanfordCoreNLP}.
-   * @param backends The backends to run on.
-   * @param apiKey The key to authenticate with as a username
-   * @param apiSecret The key to authenticate with as a password
+   * @param builder The properties file, as would be passed to {@link StanfordCoreNLP},
+   *                the backends to run on and the connection settings.
    */
-  private StanfordCoreNLPClientSimple(Properties properties, List<Backend> backends,
-                                String apiKey, String apiSecret) {
+  private StanfordCoreNLPClientSimple(Builder builder) {
     Properties serverProperties = new Properties();
-    for (String key : properties.stringPropertyNames()) {
-      serverProperties.setProperty(key, properties.getProperty(key));
+    for (String key : builder.properties.stringPropertyNames()) {
+      serverProperties.setProperty(key, builder.properties.getProperty(key));
     }
+    List<Backend> backends = new ArrayList<>(builder.backends);
     Collections.shuffle(backends, new Random(System.currentTimeMillis()));
     this.backends = backends;
-    this.apiKey = apiKey;
-    this.apiSecret = apiSecret;
 
     // Set required serverProperties
     serverProperties.setProperty("inputFormat", "serialized");
@@ -129,125 +263,810 @@ public class StanfordCoreNLPClientSimple extends AnnotationPipeline  {
         .collect(Collectors.toList());
     // Create the JSON object
     this.propsAsJSON = "{ " + StringUtils.join(jsonProperties, ", ") + " }";
+
+    // Everything about a request that does not depend on the document is built once, here
+    try {
+      String queryParams = String.format(
+          "properties=%s",
+          URLEncoder.encode(this.propsAsJSON, "utf-8"));
+      for (Backend backend : backends) {
+        backend.annotationURI = new URI(backend + this.path + '?' + queryParams);
+        backend.statusURI = new URI(backend + this.statusPath);
+      }
+    } catch (UnsupportedEncodingException | URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+    if (builder.apiKey != null && builder.apiSecret != null) {
+      String userpass = builder.apiKey + ':' + builder.apiSecret;
+      this.authorization = new BasicHeader("Authorization",
+          "Basic " + Base64.getEncoder().encodeToString(userpass.getBytes(StandardCharsets.UTF_8)));
+    } else {
+      this.authorization = null;
+    }
+
+    // Start the non-blocking client. Connections are pooled per backend and kept alive
+    // between requests, so the TCP and TLS handshakes are only paid once per connection.
+    int poolSize = builder.poolSize > 0 ? builder.poolSize : builder.maxInFlight;
+    this.inFlight = new Semaphore(builder.maxInFlight);
+    this.adaptive = builder.adaptive;
+    if (this.adaptive) {
+      // start from an even share of the fixed maximum, which stays the ceiling
+      for (Backend backend : backends) {
+        backend.limit = new AdaptiveLimit(Math.max(1, builder.maxInFlight / backends.size()), 1, builder.maxInFlight);
+      }
+    }
+    this.httpClient = HttpAsyncClients.custom()
+        .setMaxConnPerRoute(poolSize)
+        .setMaxConnTotal(poolSize * backends.size())
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout(builder.connectTimeoutMillis)
+            .setSocketTimeout(builder.socketTimeoutMillis)
+            .setConnectionRequestTimeout(builder.leaseTimeoutMillis)
+            .build())
+        .setKeepAliveStrategy((response, context) -> {
+          long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+          return keepAlive > 0 ? keepAlive : builder.keepAliveMillis;
+        })
+        .setDefaultIOReactorConfig(IOReactorConfig.custom()
+            .setSoKeepAlive(true)
+            .setTcpNoDelay(true)
+            .build())
+        .setUserAgent(StanfordCoreNLPClientSimple.class.getName())
+        .build();
+    this.httpClient.start();
+    this.statusClient = HttpAsyncClients.custom()
+        .setMaxConnPerRoute(1)
+        .setMaxConnTotal(backends.size())
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout((int) STATUS_TIMEOUT_MILLIS)
+            .setSocketTimeout((int) STATUS_TIMEOUT_MILLIS)
+            .setConnectionRequestTimeout((int) STATUS_TIMEOUT_MILLIS)
+            .build())
+        .setDefaultIOReactorConfig(IOReactorConfig.custom()
+            .setIoThreadCount(1)
+            .build())
+        .setUserAgent(StanfordCoreNLPClientSimple.class.getName())
+        .build();
+    this.statusClient.start();
+
+    this.maxRetries = builder.maxRetries;
+    this.retryBackoffMillis = builder.retryBackoffMillis;
+    this.maxRetryBackoffMillis = builder.maxRetryBackoffMillis;
+    this.circuitBreakerThreshold = builder.circuitBreakerThreshold;
+    this.circuitBreakerOpenMillis = builder.circuitBreakerOpenMillis;
+    this.metrics = builder.metrics;
+    this.mentionsOnly = builder.mentionsOnly;
+    this.compressionThreshold = builder.compressionThreshold;
+    this.responseCompression = builder.responseCompression;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, StanfordCoreNLPClientSimple.class.getSimpleName() + "-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    // Probe the backends in the background, ejecting is pointless with only one of them
+    this.ejectBackends = builder.healthCheckIntervalMillis > 0 && backends.size() > 1;
+    if (this.ejectBackends) {
+      this.scheduler.scheduleWithFixedDelay(this::checkBackends,
+          builder.healthCheckIntervalMillis, builder.healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
   }
 
   /**
    * Run on a single backend, with authentication
    *
-   * @see StanfordCoreNLPClientSimple (Properties, List)
+   * @see StanfordCoreNLPClientSimple (Builder)
    */
   @SuppressWarnings("unused")
   public StanfordCoreNLPClientSimple(Properties properties, String host, int port,
                                String apiKey, String apiSecret) {
 
-    this(properties, getBackends(host, port, 1), apiKey, apiSecret);
+    this(new Builder(properties).hosts(host, port).credentials(apiKey, apiSecret).healthCheckInterval(0));
+  }
+
+  /**
+   * Builds a client from the properties and a comma separated list of hosts.
+   */
+  public static class Builder {
+    private final Properties properties;
+    private List<Backend> backends = new ArrayList<>();
+    private String apiKey;
+    private String apiSecret;
+    private long healthCheckIntervalMillis = 10000;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int poolSize;
+    private long keepAliveMillis = 60000;
+    private int connectTimeoutMillis = 10000;
+    private int socketTimeoutMillis = 120000;
+    private int leaseTimeoutMillis = 30000;
+    private int maxRetries = 3;
+    private long retryBackoffMillis = 100;
+    private long maxRetryBackoffMillis = 10000;
+    private int circuitBreakerThreshold = 5;
+    private long circuitBreakerOpenMillis = 30000;
+    private StanfordCoreNLPMetrics metrics;
+    private boolean mentionsOnly;
+    private int compressionThreshold = -1;
+    private boolean responseCompression;
+    private boolean adaptive;
+
+    public Builder(Properties properties) {
+      this.properties = properties;
+    }
+
+    /**
+     * @param hosts Comma separated list of servers, such as: http://nlp1:9000,http://nlp2
+     * @param defaultPort The port for hosts that do not specify one
+     */
+    public Builder hosts(String hosts, int defaultPort) {
+      this.backends = getBackends(hosts, defaultPort);
+      return this;
+    }
+
+    public Builder credentials(String apiKey, String apiSecret) {
+      this.apiKey = apiKey;
+      this.apiSecret = apiSecret;
+      return this;
+    }
+
+    public Builder healthCheckInterval(long millis) {
+      this.healthCheckIntervalMillis = millis;
+      return this;
+    }
+
+    public Builder maxInFlight(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+      return this;
+    }
+
+    /**
+     * @param poolSize The number of connections kept open to each backend, or 0 for one per request in flight
+     */
+    public Builder poolSize(int poolSize) {
+      this.poolSize = poolSize;
+      return this;
+    }
+
+    /**
+     * @param millis How long an idle connection is kept open when the server does not say
+     */
+    public Builder keepAlive(long millis) {
+      this.keepAliveMillis = millis;
+      return this;
+    }
+
+    /**
+     * @param connectMillis How long to wait for a connection to a backend to be established
+     * @param socketMillis How long to wait for the next byte of a response, so a hung backend fails the request
+     * @param leaseMillis How long to wait for a pooled connection to be free
+     */
+    public Builder timeouts(int connectMillis, int socketMillis, int leaseMillis) {
+      this.connectTimeoutMillis = connectMillis;
+      this.socketTimeoutMillis = socketMillis;
+      this.leaseTimeoutMillis = leaseMillis;
+      return this;
+    }
+
+    /**
+     * @param maxRetries How many times a retryable failure is tried again
+     * @param backoffMillis The delay before the first retry, doubled on every further one and jittered
+     * @param maxBackoffMillis The cap on the delay between retries
+     */
+    public Builder retries(int maxRetries, long backoffMillis, long maxBackoffMillis) {
+      this.maxRetries = maxRetries;
+      this.retryBackoffMillis = backoffMillis;
+      this.maxRetryBackoffMillis = maxBackoffMillis;
+      return this;
+    }
+
+    /**
+     * @param threshold The number of failed attempts in a row that open a backend's circuit, or 0 to disable
+     * @param openMillis How long the circuit stays open before requests are let through again
+     */
+    public Builder circuitBreaker(int threshold, long openMillis) {
+      this.circuitBreakerThreshold = threshold;
+      this.circuitBreakerOpenMillis = openMillis;
+      return this;
+    }
+
+    /**
+     * @param metrics Where to record how long requests spend in each stage, or null
+     */
+    public Builder metrics(StanfordCoreNLPMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * @param mentionsOnly Whether to only read the entity mentions of each response into the annotation,
+     *                     skipping tokens, sentences and trees nothing but entity extraction will look at
+     */
+    public Builder mentionsOnly(boolean mentionsOnly) {
+      this.mentionsOnly = mentionsOnly;
+      return this;
+    }
+
+    /**
+     * @param thresholdBytes The serialized size from which request bodies are gzipped, or -1 to never
+     *                       compress them
+     */
+    public Builder compression(int thresholdBytes) {
+      this.compressionThreshold = thresholdBytes;
+      return this;
+    }
+
+    /**
+     * @param responseCompression Whether to ask the backends to gzip their responses
+     */
+    public Builder responseCompression(boolean responseCompression) {
+      this.responseCompression = responseCompression;
+      return this;
+    }
+
+    /**
+     * @param adaptive Whether to limit the requests in flight to each backend adaptively, growing the limit
+     *                 while round trips hold steady and cutting it on failures or rising round trips.
+     *                 maxInFlight remains the ceiling across all backends.
+     */
+    public Builder adaptiveConcurrency(boolean adaptive) {
+      this.adaptive = adaptive;
+      return this;
+    }
+
+    public StanfordCoreNLPClientSimple build() {
+      if (backends.isEmpty()) {
+        throw new IllegalArgumentException("At least one host is required");
+      }
+      return new StanfordCoreNLPClientSimple(this);
+    }
   }
 
-  private static List<Backend> getBackends(String host, int port, int threads) {
+  private static List<Backend> getBackends(String hosts, int defaultPort) {
     List<Backend> backends = new ArrayList<>();
-    for (int i = 0; i < threads; i++) {
-      backends.add(new Backend(host.startsWith("http://") ? "http" : "https",
-              host.startsWith("http://") ? host.substring("http://".length()) : (host.startsWith("https://") ? host.substring("https://".length()) : host),
-              port));
+    for (String entry : hosts.split(",")) {
+      String host = entry.trim();
+      if (host.isEmpty()) {
+        continue;
+      }
+      String protocol = host.startsWith("http://") ? "http" : "https";
+      host = host.startsWith("http://") ? host.substring("http://".length()) : (host.startsWith("https://") ? host.substring("https://".length()) : host);
+      if (host.endsWith("/")) {
+        host = host.substring(0, host.length() - 1);
+      }
+      int port = defaultPort;
+      int colon = host.lastIndexOf(':');
+      if (colon > 0 && host.indexOf(']', colon) < 0) {
+        port = Integer.parseInt(host.substring(colon + 1));
+        host = host.substring(0, colon);
+      }
+      backends.add(new Backend(protocol, host, port));
     }
     return backends;
   }
 
+  /**
+   * Picks the healthy backend with the fewest requests in flight.
+   * If every backend has been ejected we still pick the least loaded one
+   * rather than failing outright, unless its circuit is open.
+   */
+  private Backend nextBackend() {
+    Backend backend = leastOutstanding(true);
+    return backend != null ? backend : leastOutstanding(false);
+  }
+
+  private Backend leastOutstanding(boolean healthyOnly) {
+    Backend best = null;
+    int size = this.backends.size();
+    int start = Math.floorMod(nextBackend.getAndIncrement(), size);
+    for (int i = 0; i < size; i++) {
+      Backend candidate = this.backends.get((start + i) % size);
+      if (healthyOnly && (!candidate.healthy || !isAccepting(candidate))) {
+        continue;
+      }
+      if (best == null || load(candidate) < load(best)) {
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  /** The requests in flight to the backend, less its adaptive limit if it has one, so the most headroom wins. */
+  private static int load(Backend backend) {
+    return backend.outstanding.get() - (backend.limit == null ? 0 : backend.limit.get());
+  }
+
+  /**
+   * Picks a backend and counts the request against it. With adaptive limits the caller
+   * waits until some backend is under its limit, unless the pick does not accept requests
+   * through its circuit and the request is going to fail right away.
+   */
+  private Backend acquireBackend() throws InterruptedException {
+    if (!adaptive) {
+      Backend backend = nextBackend();
+      backend.outstanding.incrementAndGet();
+      return backend;
+    }
+    synchronized (capacity) {
+      while (true) {
+        Backend backend = nextBackend();
+        if (!isAccepting(backend) || backend.outstanding.get() < backend.limit.get()) {
+          backend.outstanding.incrementAndGet();
+          return backend;
+        }
+        capacity.wait(CAPACITY_WAIT_MILLIS);
+      }
+    }
+  }
+
+  private void releaseBackend(Backend backend) {
+    backend.outstanding.decrementAndGet();
+    if (adaptive) {
+      synchronized (capacity) {
+        capacity.notifyAll();
+      }
+    }
+  }
+
+  /** Feeds the outcome of an attempt to the backend's adaptive limit, if it has one. */
+  private static void sample(Backend backend, long sentAt, boolean dropped) {
+    if (backend.limit != null) {
+      backend.limit.onSample(System.nanoTime() - sentAt, backend.outstanding.get(), dropped);
+    }
+  }
+
+  /**
+   * The sum of the backends' current adaptive limits on requests in flight, or -1 if they are not adaptive.
+   */
+  public int getConcurrencyLimit() {
+    if (!adaptive) {
+      return -1;
+    }
+    int limit = 0;
+    for (Backend backend : backends) {
+      limit += backend.limit.get();
+    }
+    return limit;
+  }
+
+  /** Whether the backend's circuit is open, failing requests without sending them. */
+  private boolean isOpen(Backend backend) {
+    return System.currentTimeMillis() < backend.openUntil;
+  }
+
+  /**
+   * Whether the backend's circuit has been open long enough to let a single trial request through,
+   * whose outcome closes it again or re-opens it.
+   */
+  private boolean isHalfOpen(Backend backend) {
+    return circuitBreakerThreshold > 0 && backend.failures.get() >= circuitBreakerThreshold && !isOpen(backend);
+  }
+
+  /** Whether a request to the backend would be sent rather than fail fast on its circuit. */
+  private boolean isAccepting(Backend backend) {
+    return !isOpen(backend) && !(isHalfOpen(backend) && backend.trial.get());
+  }
+
+  /** Closes the backend's circuit, if it was half-open this was the trial that succeeded. */
+  private void recordSuccess(Backend backend) {
+    backend.failures.set(0);
+  }
+
+  /**
+   * Counts an attempt that could not reach the backend or was turned away, opening its circuit once
+   * too many failed in a row, or re-opening it right away when the trial of a half-open circuit failed.
+   * Only called for retryable failures, an error answer such as a 500 shows the backend is up.
+   */
+  private void recordFailure(Backend backend) {
+    if (circuitBreakerThreshold > 0 && backend.failures.incrementAndGet() >= circuitBreakerThreshold) {
+      if (!isOpen(backend)) {
+        log.warn("Opening circuit to backend " + backend + " for " + circuitBreakerOpenMillis + "ms");
+      }
+      backend.openUntil = System.currentTimeMillis() + circuitBreakerOpenMillis;
+    }
+  }
+
+  /**
+   * The delay before the given retry: exponential backoff with full jitter,
+   * or what the server asked for with Retry-After.
+   */
+  long backoffMillis(int tries, Throwable t) {
+    if (t instanceof UnavailableException && ((UnavailableException) t).retryAfterMillis > 0) {
+      return Math.min(((UnavailableException) t).retryAfterMillis, maxRetryBackoffMillis);
+    }
+    long ceiling = Math.min(maxRetryBackoffMillis, retryBackoffMillis << Math.min(tries, 30));
+    return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  /**
+   * Whether a failed annotation could succeed if the same document was sent again later:
+   * the connection to the server could not be made, it was overloaded, or its circuit was open.
+   * A response that timed out is not retried, the server is likely still annotating the document
+   * and sending it again would only add to its load.
+   *
+   * @param t The failure, as set in the {@link CoreAnnotations.ExceptionAnnotation} or wrapping it
+   */
+  public static boolean isRetryable(Throwable t) {
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (cause instanceof UnavailableException || cause instanceof ConnectException
+          || cause instanceof ConnectTimeoutException || cause instanceof NoRouteToHostException) {
+        return true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether a failed annotation waited longer than the socket timeout for the server's response.
+   */
+  public static boolean isTimedOut(Throwable t) {
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SocketTimeoutException) {
+        return true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether a failed annotation means the server itself could not be talked to: the connection
+   * was refused, reset or timed out, or its host could not be found or reached. A server that
+   * answered, even with an error, is still up.
+   */
+  private static boolean isUnreachable(Throwable t) {
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SocketException || cause instanceof SocketTimeoutException
+          || cause instanceof ConnectTimeoutException || cause instanceof ConnectionClosedException
+          || cause instanceof UnknownHostException) {
+        return true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The server is temporarily unable to annotate: it answered 503 or 429, or
+   * its circuit is open after failing too many times in a row.
+   */
+  public static class UnavailableException extends IOException {
+    private static final long serialVersionUID = 1L;
+    /** How long the server asked us to wait, or 0 */
+    public final long retryAfterMillis;
+    public UnavailableException(String message, long retryAfterMillis) {
+      super(message);
+      this.retryAfterMillis = retryAfterMillis;
+    }
+  }
+
+  /**
+   * Probe every backend, ejecting the dead ones and re-admitting those that came back.
+   * The probes are answered on the status client's own thread, so a backend that does not
+   * answer never holds up the retries scheduled behind the health check.
+   */
+  private void checkBackends() {
+    for (Backend backend : this.backends) {
+      HttpGet request = new HttpGet(backend.statusURI);
+      if (authorization != null) {
+        request.setHeader(authorization);
+      }
+      try {
+        statusClient.execute(request, new FutureCallback<HttpResponse>() {
+          @Override
+          public void completed(HttpResponse response) {
+            int status = response.getStatusLine().getStatusCode();
+            EntityUtils.consumeQuietly(response.getEntity());
+            setHealthy(backend, status >= 200 && status <= 400);
+          }
+
+          @Override
+          public void failed(Exception e) {
+            setHealthy(backend, false);
+          }
+
+          @Override
+          public void cancelled() {
+          }
+        });
+      } catch (RuntimeException e) {
+        // the client is shutting down
+        return;
+      }
+    }
+  }
+
+  private void setHealthy(Backend backend, boolean alive) {
+    if (alive != backend.healthy) {
+      log.warn((alive ? "Re-admitting backend " : "Ejecting backend ") + backend);
+      backend.healthy = alive;
+    }
+  }
+
+  /**
+   * Stop probing the backends and close the HTTP clients. The client must not be used afterwards.
+   */
+  public void shutdown() {
+    scheduler.shutdownNow();
+    try {
+      httpClient.close();
+      statusClient.close();
+    } catch (IOException e) {
+      log.warn(e);
+    }
+  }
+
   /**
    * This method creates a sync call to the server, and blocks until the server has finished annotating the object.
    *
    * @param annotation The annotation to annotate.
    */
   public void annotate(final Annotation annotation) {
-    Backend backend = this.backends.get(0);
+    annotateAsync(annotation).join();
+  }
+
+  /**
+   * This method sends the annotation to the server without blocking on the response.
+   * At most maxInFlight requests are outstanding at once, and with adaptive concurrency
+   * no more to each backend than its current limit; beyond that the caller
+   * waits for a slot before its request is sent.
+   * The returned future always completes normally with the given annotation;
+   * if the server could not annotate it the error is set as its
+   * {@link CoreAnnotations.ExceptionAnnotation}, just like {@link #annotate(Annotation)}.
+   *
+   * @param annotation The annotation to annotate.
+   * @return A future completed once the response has been copied into the annotation.
+   */
+  public CompletableFuture<Annotation> annotateAsync(final Annotation annotation) {
+    Backend backend;
     try {
+      inFlight.acquire();
+      try {
+        backend = acquireBackend();
+      } catch (InterruptedException e) {
+        inFlight.release();
+        throw e;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      annotation.set(CoreAnnotations.ExceptionAnnotation.class, e);
+      return CompletableFuture.completedFuture(annotation);
+    }
+
+    CompletableFuture<Annotation> response = new CompletableFuture<>();
+    boolean halfOpen = isHalfOpen(backend);
+    boolean trial = halfOpen && backend.trial.compareAndSet(false, true);
+    if (isOpen(backend) || (halfOpen && !trial)) {
+      // Every backend is failing, don't add to their load while they recover
+      response.completeExceptionally(new UnavailableException("Circuit to backend " + backend + " is open", 0));
+    } else try {
       // 1. Create the input
       // 1.1 Create a protocol buffer
+      long start = System.nanoTime();
       ByteArrayOutputStream os = new ByteArrayOutputStream();
-      serializer.write(annotation, os);
+      SERIALIZER.get().write(annotation, os);
       os.close();
       byte[] message = os.toByteArray();
-      // 1.2 Create the query params
-
-      String queryParams = String.format(
-          "properties=%s",
-          URLEncoder.encode(StanfordCoreNLPClientSimple.this.propsAsJSON, "utf-8"));
-
-      // 2. Create a connection
-      URL serverURL = new URL(backend.protocol, backend.host,
-          backend.port,
-          StanfordCoreNLPClientSimple.this.path + '?' + queryParams);
+      // 1.2 Compress it, once for every try, if it is worth the CPU
+      ByteArrayEntity entity;
+      if (compressionThreshold >= 0 && message.length >= compressionThreshold) {
+        entity = new ByteArrayEntity(gzip(message), PROTOBUF);
+        entity.setContentEncoding(GZIP);
+      } else {
+        entity = new ByteArrayEntity(message, PROTOBUF);
+      }
+      record(StanfordCoreNLPMetrics.SERIALIZE, start);
 
-      // 3. Do the annotation
+      // 2. Do the annotation against the precomputed request target
       //    This method has two contracts:
-      //    1. It should call the two relevant callbacks
+      //    1. It should complete the response future
       //    2. It must not throw an exception
-      doAnnotation(annotation, backend, serverURL, message, 0);
+      doAnnotation(annotation, backend, backend.annotationURI, entity, 0, response);
     } catch (Throwable t) {
-      log.err("Could not annotate via server!", t);
-      annotation.set(CoreAnnotations.ExceptionAnnotation.class, t);
+      response.completeExceptionally(t);
     }
+
+    return response.handle((ignored, t) -> {
+      if (trial) {
+        backend.trial.set(false);
+      }
+      releaseBackend(backend);
+      inFlight.release();
+      if (t != null) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        log.err("Could not annotate via server!", cause);
+        annotation.set(CoreAnnotations.ExceptionAnnotation.class, cause);
+        // Stop scheduling on an unreachable backend until the health check sees it again
+        if (ejectBackends && backend.healthy && !isOpen(backend) && isUnreachable(cause)) {
+          log.warn("Ejecting backend " + backend);
+          backend.healthy = false;
+        }
+      }
+      return annotation;
+    });
   }
 
   /**
    * Actually try to perform the annotation on the server side.
-   * This is factored out so that we can retry up to 3 times.
+   * This is factored out so that we can retry retryable failures up to maxRetries times,
+   * backing off between tries.
    *
    * @param annotation The annotation we need to fill.
    * @param backend The backend we are querying against.
-   * @param serverURL The URL of the server we are hitting.
+   * @param serverURI The URI of the server we are hitting.
    * @param message The message we are sending the server (don't need to recompute each retry).
    * @param tries The number of times we've tried already.
+   * @param response Completed once the annotation has been filled, or exceptionally after the last try.
    */
-  @SuppressWarnings("unchecked")
-  private void doAnnotation(Annotation annotation, Backend backend, URL serverURL, byte[] message, int tries) {
+  private void doAnnotation(Annotation annotation, Backend backend, URI serverURI, HttpEntity message, int tries,
+                            CompletableFuture<Annotation> response) {
+    // 1. Set up the request
+    HttpPost request = new HttpPost(serverURI);
+    // 1.1 Set authentication
+    if (authorization != null) {
+      request.setHeader(authorization);
+    }
+    // 1.2 Set some protocol-independent properties
+    request.setHeader("Accept-Charset", "utf-8");
+    if (responseCompression) {
+      request.setHeader("Accept-Encoding", GZIP);
+    }
+    request.setEntity(message);
 
+    // 2. Annotate
+    // 2.1. Fire off the request, the callbacks run on the client's I/O threads
     try {
-      // 1. Set up the connection
-      URLConnection connection = serverURL.openConnection();
-      // 1.1 Set authentication
-      if (apiKey != null && apiSecret != null) {
-        String userpass = apiKey + ':' + apiSecret;
-        String basicAuth = "Basic " + new String(Base64.getEncoder().encode(userpass.getBytes()));
-        connection.setRequestProperty("Authorization", basicAuth);
-      }
-      // 1.2 Set some protocol-independent properties
-      connection.setDoOutput(true);
-      connection.setRequestProperty("Content-Type", "application/x-protobuf");
-      connection.setRequestProperty("Content-Length", Integer.toString(message.length));
-      connection.setRequestProperty("Accept-Charset", "utf-8");
-      connection.setRequestProperty("User-Agent", StanfordCoreNLPClientSimple.class.getName());
-      // 1.3 Set some protocol-dependent properties
-      switch (backend.protocol) {
-        case "https":
-        case "http":
-          ((HttpURLConnection) connection).setRequestMethod("POST");
-          break;
-        default:
-          throw new IllegalStateException("Haven't implemented protocol: " + backend.protocol);
+      httpClient.execute(request, new AnnotationCallback(annotation, backend, serverURI, message, tries, response,
+          System.nanoTime()));
+    } catch (Throwable t) {
+      response.completeExceptionally(t);
+    }
+  }
+
+  /**
+   * Copies the server's response into the annotation, or decides whether and when to try again.
+   */
+  private class AnnotationCallback implements FutureCallback<HttpResponse> {
+    private final Annotation annotation;
+    private final Backend backend;
+    private final URI serverURI;
+    private final HttpEntity message;
+    private final int tries;
+    private final CompletableFuture<Annotation> response;
+    private final long sentAt;
+
+    AnnotationCallback(Annotation annotation, Backend backend, URI serverURI, HttpEntity message, int tries,
+                       CompletableFuture<Annotation> response, long sentAt) {
+      this.annotation = annotation;
+      this.backend = backend;
+      this.serverURI = serverURI;
+      this.message = message;
+      this.tries = tries;
+      this.response = response;
+      this.sentAt = sentAt;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void completed(HttpResponse result) {
+      record(StanfordCoreNLPMetrics.ROUND_TRIP, sentAt);
+      try {
+        int status = result.getStatusLine().getStatusCode();
+        // the server's load shows in how long it took and whether it turned us away or broke down
+        sample(backend, sentAt, status >= 500 || status == SC_TOO_MANY_REQUESTS);
+        if (status == HttpStatus.SC_SERVICE_UNAVAILABLE || status == SC_TOO_MANY_REQUESTS) {
+          throw new UnavailableException("Server " + backend + " returned HTTP " + status, retryAfterMillis(result));
+        }
+        if (status < 200 || status >= 300) {
+          throw new IOException("Server " + backend + " returned HTTP " + status);
+        }
+        // 2.2 Read the response
+        // -- It might be possible to send more than one message, but we are not going to do that.
+        long start = System.nanoTime();
+        InputStream content = content(result.getEntity());
+        if (mentionsOnly) {
+          // 2.3. Only the entity mentions are needed, decode just those
+          annotation.set(CoreAnnotations.MentionsAnnotation.class,
+              MentionDecoder.readMentions(content, annotation.get(CoreAnnotations.TextAnnotation.class)));
+        } else {
+          Annotation responseAnnotation = SERIALIZER.get().read(content).first;
+          // 2.3. Copy response over to original annotation
+          for (Class key : responseAnnotation.keySet()) {
+            annotation.set(key, responseAnnotation.get(key));
+          }
+        }
+        record(StanfordCoreNLPMetrics.DESERIALIZE, start);
+        recordSuccess(backend);
+        response.complete(annotation);
+      } catch (Throwable t) {
+        retry(t);
+      } finally {
+        // Release the entity so the connection goes back to the pool
+        EntityUtils.consumeQuietly(result.getEntity());
       }
+    }
+
+    @Override
+    public void failed(Exception e) {
+      sample(backend, sentAt, true);
+      retry(e);
+    }
 
-      // 2. Annotate
-      // 2.1. Fire off the request
-      connection.connect();
-      connection.getOutputStream().write(message);
-      connection.getOutputStream().flush();
-      // 2.2 Await a response
-      // -- It might be possible to send more than one message, but we are not going to do that.
-      Annotation response = serializer.read(connection.getInputStream()).first;
-      // 2.3. Copy response over to original annotation
-      for (Class key : response.keySet()) {
-        annotation.set(key, response.get(key));
+    @Override
+    public void cancelled() {
+      retry(new CancellationException("Request to " + backend + " was cancelled"));
+    }
+
+    private void retry(Throwable t) {
+      // 3. We encountered an error -- retry after a while, unless it would not help
+      //    or the server needs a break
+      if (isRetryable(t)) {
+        recordFailure(backend);
+      }
+      if (tries >= maxRetries || !isRetryable(t) || isOpen(backend)) {
+        response.completeExceptionally(t);
+        return;
       }
+      long delay = backoffMillis(tries, t);
+      log.warn("Retrying request to " + backend + " in " + delay + "ms: " + t);
+      try {
+        scheduler.schedule(() -> doAnnotation(annotation, backend, serverURI, message, tries + 1, response),
+            delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        response.completeExceptionally(t);
+      }
+    }
+  }
 
-    } catch (Throwable t) {
-      // 3. We encountered an error -- retry
-      if (tries < 3) {
-        log.warn(t);
-        doAnnotation(annotation, backend, serverURL, message, tries + 1);
-      } else {
-        throw new RuntimeException(t);
+  /**
+   * Gzips a serialized message. Favors speed over ratio, protocol buffers of plain text
+   * shrink well even at the lowest level.
+   */
+  private static byte[] gzip(byte[] message) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(message.length / 2);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(os, 8192) {
+      {
+        def.setLevel(Deflater.BEST_SPEED);
       }
+    }) {
+      gzip.write(message);
+    }
+    return os.toByteArray();
+  }
+
+  /** The body of a response, inflated if the server gzipped it. The async client does not do this for us. */
+  private static InputStream content(HttpEntity entity) throws IOException {
+    InputStream content = entity.getContent();
+    Header encoding = entity.getContentEncoding();
+    if (encoding != null && GZIP.equalsIgnoreCase(encoding.getValue().trim())) {
+      return new GZIPInputStream(content, 8192);
+    }
+    return content;
+  }
+
+  /** Records the time since start, in nanos, if metrics are kept. */
+  private void record(String stage, long start) {
+    if (metrics != null) {
+      metrics.record(stage, System.nanoTime() - start);
+    }
+  }
+
+  /** The Retry-After header of the response in millis, when given in seconds, or 0. */
+  private static long retryAfterMillis(HttpResponse response) {
+    Header retryAfter = response.getFirstHeader("Retry-After");
+    if (retryAfter == null) {
+      return 0;
+    }
+    try {
+      return Math.max(0, Long.parseLong(retryAfter.getValue().trim()) * 1000);
+    } catch (NumberFormatException e) {
+      return 0;
     }
   }
 
@@ -256,21 +1075,30 @@ public class StanfordCoreNLPClientSimple extends AnnotationPipeline  {
    * @param serverURL The server (running CoreNLP) to check
    * @return true if the server is alive and returns a response code between 200 and 400 inclusive
    */
-  @SuppressWarnings("unused")
   public boolean checkStatus(URL serverURL) {
     try {
-      // 1. Set up the connection
-      HttpURLConnection connection = (HttpURLConnection) serverURL.openConnection();
+      // 1. Set up the request, over the probes' own connections
+      HttpGet request = new HttpGet(serverURL.toURI());
       // 1.1 Set authentication
-      if (apiKey != null && apiSecret != null) {
-        String userpass = apiKey + ':' + apiSecret;
-        String basicAuth = "Basic " + new String(Base64.getEncoder().encode(userpass.getBytes()));
-        connection.setRequestProperty("Authorization", basicAuth);
+      if (authorization != null) {
+        request.setHeader(authorization);
       }
 
-      connection.setRequestMethod("GET");
-      connection.connect();
-      return connection.getResponseCode() >= 200 && connection.getResponseCode() <= 400;
+      Future<HttpResponse> future = statusClient.execute(request, null);
+      HttpResponse response;
+      try {
+        response = future.get(STATUS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        // Give the connection back rather than leave it to a server that is not answering
+        future.cancel(true);
+        throw e;
+      }
+      try {
+        int status = response.getStatusLine().getStatusCode();
+        return status >= 200 && status <= 400;
+      } finally {
+        EntityUtils.consumeQuietly(response.getEntity());
+      }
     } catch (Throwable t) {
       throw new RuntimeException(t);
     }
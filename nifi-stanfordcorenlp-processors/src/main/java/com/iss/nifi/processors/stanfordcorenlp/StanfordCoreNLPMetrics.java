@@ -0,0 +1,118 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Latency histograms for each stage a flow file goes through, shared by the
+ * processor, the service and the remote client.
+ */
+public class StanfordCoreNLPMetrics {
+    /** Reading the flow file content */
+    public static final String READ = "read";
+    /** Selecting the text with the JSON path */
+    public static final String JSON_PATH = "jsonPath";
+    /** Serializing a document to protobuf for the server */
+    public static final String SERIALIZE = "serialize";
+    /** From sending a request to the server until its response arrived */
+    public static final String ROUND_TRIP = "roundTrip";
+    /** Reading the server's protobuf response into the annotation */
+    public static final String DESERIALIZE = "deserialize";
+    /** Annotating a batch with the local pipeline */
+    public static final String ANNOTATE = "annotate";
+    /** Collecting the entity mentions of an annotation */
+    public static final String EXTRACT = "extract";
+    /** From submitting a flow file's text until its entities were ready */
+    public static final String ANALYZE = "analyze";
+    /** Writing the output content */
+    public static final String WRITE = "write";
+
+    private final Map<String, LatencyHistogram> histograms;
+
+    public StanfordCoreNLPMetrics() {
+        final Map<String, LatencyHistogram> histograms = new LinkedHashMap<String, LatencyHistogram>();
+        for (final String stage : new String[] { READ, JSON_PATH, SERIALIZE, ROUND_TRIP, DESERIALIZE, ANNOTATE,
+                EXTRACT, ANALYZE, WRITE }) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    public void record(final String stage, final long nanos) {
+        histograms.get(stage).record(nanos);
+    }
+
+    public LatencyHistogram get(final String stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Whole milliseconds spent in each stage since the last call, for stages
+     * that took any.
+     */
+    public Map<String, Long> takeNewMillis() {
+        final Map<String, Long> millis = new LinkedHashMap<String, Long>();
+        for (final Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            final long stageMillis = entry.getValue().takeNewMillis();
+            if (stageMillis > 0) {
+                millis.put(entry.getKey(), stageMillis);
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * Describes the p50, p95 and p99 latencies of each stage since the last
+     * summary, then starts over.
+     */
+    public String drainSummary() {
+        final StringBuilder summary = new StringBuilder();
+        for (final Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            final LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(entry.getKey())
+                    .append(" n=").append(histogram.getCount())
+                    .append(" p50=").append(formatMillis(histogram.percentile(0.50)))
+                    .append(" p95=").append(formatMillis(histogram.percentile(0.95)))
+                    .append(" p99=").append(formatMillis(histogram.percentile(0.99)));
+            histogram.reset();
+        }
+        return summary.toString();
+    }
+
+    private static String formatMillis(final long micros) {
+        return String.format(Locale.ROOT, "%.1fms", micros / 1000.0);
+    }
+}
@@ -25,22 +25,34 @@
 
 package com.iss.nifi.processors.stanfordcorenlp;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
+import com.iss.nifi.services.stanfordcorenlp.StanfordCoreNLPPipelineService;
 import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.Option;
@@ -54,9 +66,11 @@ import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
@@ -64,6 +78,7 @@ import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.InputStreamCallback;
 import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.io.StreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
 
 import edu.stanford.nlp.pipeline.AnnotationPipeline;
@@ -73,7 +88,9 @@ import edu.stanford.nlp.pipeline.AnnotationPipeline;
 @SeeAlso({})
 @ReadsAttributes({ @ReadsAttribute(attribute = "", description = ""), })
 @WritesAttributes({
-        @WritesAttribute(attribute = "output", description = "The Stanford CoreNLP analysis output rendered in the configured format") })
+        @WritesAttribute(attribute = "output", description = "The Stanford CoreNLP analysis output rendered in the configured format"),
+        @WritesAttribute(attribute = "skipped", description = "Set to true when the pre-filter found no candidate entities and the text was not analyzed, or for a streamed flow file, none of its windows was"),
+        @WritesAttribute(attribute = "timing", description = "Milliseconds the flow file spent in each stage, as JSON, when the Timing Attribute property is set") })
 public class StanfordCoreNLPProcessor extends AbstractProcessor {
     public static final String ENTITIES_ATTR = "entityTypes";
     public static final String PATH_ATTR = "path";
@@ -82,7 +99,44 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
     public static final String PORT_ATTR = "port";
     public static final String KEY_ATTR = "apiKey";
     public static final String SECRET_ATTR = "apiSecret";
+    public static final String HEALTH_CHECK_ATTR = "healthCheckInterval";
+    public static final String MAX_IN_FLIGHT_ATTR = "maxInFlight";
+    public static final String ADAPTIVE_CONCURRENCY_ATTR = "adaptiveConcurrency";
+    public static final String POOL_SIZE_ATTR = "connectionPoolSize";
+    public static final String CONNECT_TIMEOUT_ATTR = "connectTimeout";
+    public static final String SOCKET_TIMEOUT_ATTR = "socketTimeout";
+    public static final String LEASE_TIMEOUT_ATTR = "connectionRequestTimeout";
+    public static final String MAX_RETRIES_ATTR = "maxRetries";
+    public static final String RETRY_BACKOFF_ATTR = "retryBackoff";
+    public static final String MAX_RETRY_BACKOFF_ATTR = "maxRetryBackoff";
+    public static final String BREAKER_THRESHOLD_ATTR = "circuitBreakerThreshold";
+    public static final String BREAKER_DURATION_ATTR = "circuitBreakerOpenDuration";
+    public static final String MENTIONS_ONLY_ATTR = "decodeMentionsOnly";
+    public static final String COMPRESSION_THRESHOLD_ATTR = "compressionThreshold";
+    public static final String RESPONSE_COMPRESSION_ATTR = "responseCompression";
+    public static final String PACK_LENGTH_ATTR = "packLength";
+    public static final String LOCAL_MAX_LENGTH_ATTR = "localMaxLength";
+    public static final String LOCAL_MAX_QUEUE_ATTR = "localMaxQueue";
+    public static final String BATCH_SIZE_ATTR = "batchSize";
+    public static final String PIPELINE_SERVICE_ATTR = "pipelineService";
+    public static final String CACHE_SIZE_ATTR = "cacheSize";
+    public static final String CACHE_MAX_MEMORY_ATTR = "cacheMaxMemory";
+    public static final String CACHE_TTL_ATTR = "cacheTTL";
+    public static final String MAX_CHUNK_LENGTH_ATTR = "maxChunkLength";
+    public static final String PRUNE_ANNOTATORS_ATTR = "pruneAnnotators";
+    public static final String PRE_FILTER_MIN_LENGTH_ATTR = "preFilterMinLength";
+    public static final String PRE_FILTER_PATTERN_ATTR = "preFilterPattern";
+    public static final String PRE_FILTER_CAPITALIZED_ATTR = "preFilterRequireCapitalized";
+    public static final String METRICS_LOG_INTERVAL_ATTR = "metricsLogInterval";
+    public static final String TIMING_ATTRIBUTE_ATTR = "timingAttribute";
+    public static final String CHARSET_ATTR = "characterSet";
+    public static final String STREAMING_THRESHOLD_ATTR = "streamingThreshold";
+    public static final String BACKGROUND_WARM_UP_ATTR = "backgroundWarmUp";
+    public static final String MODEL_CACHE_DIR_ATTR = "modelCacheDirectory";
+    public static final int DEFAULT_WINDOW_LENGTH = 20000;
     public static final String OUTPUT_ATTR = "output";
+    public static final String SKIPPED_ATTR = "skipped";
+    public static final String TIMING_ATTR = "timing";
 
     public static final PropertyDescriptor ENTITIES_PROPERTY = new PropertyDescriptor.Builder().name(ENTITIES_ATTR)
             .displayName("Entity Types")
@@ -94,6 +148,10 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
             .description(
                     "The JSON Path (https://github.com/json-path) from incoming flow file to extract for analyzing, such as: $.['title','content'] (if not specified, flow file will be treated as plain text)")
             .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+    public static final PropertyDescriptor CHARSET_PROPERTY = new PropertyDescriptor.Builder().name(CHARSET_ATTR)
+            .displayName("Character Set")
+            .description("Character set the flow file content is encoded in")
+            .required(true).defaultValue("UTF-8").addValidator(StandardValidators.CHARACTER_SET_VALIDATOR).build();
     public static final PropertyDescriptor PROPS_PROPERTY = new PropertyDescriptor.Builder().name(PROPS_ATTR)
             .displayName("StanfordCoreNLP Props as JSON")
             .description(
@@ -102,10 +160,11 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
     public static final PropertyDescriptor HOST_PROPERTY = new PropertyDescriptor.Builder().name(HOST_ATTR)
             .displayName("StanfordCoreNLPClient Host")
             .description(
-                    "StanfordCoreNLPClient host address, such as: http://localhost (if not specified, local processing will be performed)")
+                    "StanfordCoreNLPClient host address, or a comma separated list of them to spread requests over several servers, such as: http://localhost or http://nlp1:9000,http://nlp2:9000 (if not specified, local processing will be performed)")
             .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
     public static final PropertyDescriptor PORT_PROPERTY = new PropertyDescriptor.Builder().name(PORT_ATTR)
-            .displayName("StanfordCoreNLPClient Port").description("StanfordCoreNLPClient port, such as: 9000")
+            .displayName("StanfordCoreNLPClient Port")
+            .description("StanfordCoreNLPClient port for hosts that do not specify their own, such as: 9000")
             .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
     public static final PropertyDescriptor KEY_PROPERTY = new PropertyDescriptor.Builder().name(KEY_ATTR)
             .displayName("StanfordCoreNLPClient API Key")
@@ -117,33 +176,306 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
                     "StanfordCoreNLPClient API Secret for servers that have authentication configured, not required")
             .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
 
+    public static final PropertyDescriptor HEALTH_CHECK_PROPERTY = new PropertyDescriptor.Builder().name(HEALTH_CHECK_ATTR)
+            .displayName("StanfordCoreNLPClient Health Check Interval")
+            .description(
+                    "How often to probe the StanfordCoreNLPClient hosts when more than one is configured. A host is taken out of rotation when it cannot be reached, times out or its /live endpoint answers with an error status, such as a proxy in front of a server that is down, until a probe succeeds again. Between probes only requests that cannot reach a host take it out of rotation, an error answer to a request does not")
+            .required(true).defaultValue("10 sec").addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+    public static final PropertyDescriptor MAX_IN_FLIGHT_PROPERTY = new PropertyDescriptor.Builder().name(MAX_IN_FLIGHT_ATTR)
+            .displayName("StanfordCoreNLPClient Max In-Flight Requests")
+            .description(
+                    "Maximum number of requests sent to the StanfordCoreNLPClient hosts that may be waiting on a response at once. A batch of flow files is sent without blocking on each response, so a single task can keep this many server threads busy")
+            .required(true).defaultValue(String.valueOf(StanfordCoreNLPClientSimple.DEFAULT_MAX_IN_FLIGHT))
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor ADAPTIVE_CONCURRENCY_PROPERTY = new PropertyDescriptor.Builder()
+            .name(ADAPTIVE_CONCURRENCY_ATTR)
+            .displayName("StanfordCoreNLPClient Adaptive Concurrency")
+            .description(
+                    "Limit the requests in flight to each StanfordCoreNLPClient host adaptively: the limit grows while round trips hold steady and is cut when requests cannot reach the host or time out, the host answers 429 or any 5xx status, or round trips rise as it starts queueing. Max In-Flight Requests remains the ceiling. The current limit is kept in the \"Concurrency Limit\" processor counter")
+            .required(true).allowableValues("true", "false").defaultValue("false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+    public static final PropertyDescriptor POOL_SIZE_PROPERTY = new PropertyDescriptor.Builder().name(POOL_SIZE_ATTR)
+            .displayName("StanfordCoreNLPClient Connection Pool Size")
+            .description(
+                    "Number of keep-alive connections held open to each StanfordCoreNLPClient host and reused between requests (if not specified, one per in-flight request)")
+            .required(false).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor CONNECT_TIMEOUT_PROPERTY = new PropertyDescriptor.Builder()
+            .name(CONNECT_TIMEOUT_ATTR)
+            .displayName("StanfordCoreNLPClient Connect Timeout")
+            .description("How long to wait for a connection to a StanfordCoreNLPClient host to be established")
+            .required(true).defaultValue("10 sec").addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+    public static final PropertyDescriptor SOCKET_TIMEOUT_PROPERTY = new PropertyDescriptor.Builder()
+            .name(SOCKET_TIMEOUT_ATTR)
+            .displayName("StanfordCoreNLPClient Socket Timeout")
+            .description(
+                    "How long to wait on a StanfordCoreNLPClient host between two packets of its response. A request to a host that hangs fails after this long and its flow file goes to retry without the request being sent again, so it must cover the annotation of the longest text")
+            .required(true).defaultValue("2 min").addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+    public static final PropertyDescriptor LEASE_TIMEOUT_PROPERTY = new PropertyDescriptor.Builder()
+            .name(LEASE_TIMEOUT_ATTR)
+            .displayName("StanfordCoreNLPClient Connection Request Timeout")
+            .description("How long a request waits for a pooled connection to a StanfordCoreNLPClient host to be free")
+            .required(true).defaultValue("30 sec").addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+    public static final PropertyDescriptor MAX_RETRIES_PROPERTY = new PropertyDescriptor.Builder().name(MAX_RETRIES_ATTR)
+            .displayName("StanfordCoreNLPClient Max Retries")
+            .description(
+                    "Number of times a request is tried again when no connection to the StanfordCoreNLPClient host could be made or it answered 503 or 429. Requests that time out waiting for the answer are not sent again")
+            .required(true).defaultValue("3").addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor RETRY_BACKOFF_PROPERTY = new PropertyDescriptor.Builder().name(RETRY_BACKOFF_ATTR)
+            .displayName("StanfordCoreNLPClient Retry Backoff")
+            .description(
+                    "Delay before the first retry, doubled on every further one with random jitter, unless the host sends Retry-After")
+            .required(true).defaultValue("100 millis").addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+    public static final PropertyDescriptor MAX_RETRY_BACKOFF_PROPERTY = new PropertyDescriptor.Builder()
+            .name(MAX_RETRY_BACKOFF_ATTR)
+            .displayName("StanfordCoreNLPClient Max Retry Backoff")
+            .description("Longest delay between two retries")
+            .required(true).defaultValue("10 sec").addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+    public static final PropertyDescriptor BREAKER_THRESHOLD_PROPERTY = new PropertyDescriptor.Builder()
+            .name(BREAKER_THRESHOLD_ATTR)
+            .displayName("StanfordCoreNLPClient Circuit Breaker Threshold")
+            .description(
+                    "Number of requests in a row that could not connect to a StanfordCoreNLPClient host or were turned away with 503 or 429 after which the host is given a break: requests to it fail fast and flow files go to retry (0 disables the circuit breaker)")
+            .required(true).defaultValue("5").addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor BREAKER_DURATION_PROPERTY = new PropertyDescriptor.Builder()
+            .name(BREAKER_DURATION_ATTR)
+            .displayName("StanfordCoreNLPClient Circuit Breaker Open Duration")
+            .description(
+                    "How long requests to a host fail fast once its circuit breaker opened. Then a single trial request is let through, closing the circuit if it succeeds and opening it again if not")
+            .required(true).defaultValue("30 sec").addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+    public static final PropertyDescriptor MENTIONS_ONLY_PROPERTY = new PropertyDescriptor.Builder()
+            .name(MENTIONS_ONLY_ATTR)
+            .displayName("StanfordCoreNLPClient Decode Mentions Only")
+            .description(
+                    "Only decode the entity mentions of each server response instead of rebuilding the whole annotated document, which is all entity extraction needs")
+            .required(true).allowableValues("true", "false").defaultValue("true")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+    public static final PropertyDescriptor COMPRESSION_THRESHOLD_PROPERTY = new PropertyDescriptor.Builder()
+            .name(COMPRESSION_THRESHOLD_ATTR)
+            .displayName("StanfordCoreNLPClient Compression Threshold")
+            .description(
+                    "Serialized size from which request bodies are sent gzipped. Smaller requests are sent as is, since compressing them costs more than it saves (if not specified, nothing is compressed)")
+            .required(false).addValidator(StandardValidators.DATA_SIZE_VALIDATOR).build();
+    public static final PropertyDescriptor RESPONSE_COMPRESSION_PROPERTY = new PropertyDescriptor.Builder()
+            .name(RESPONSE_COMPRESSION_ATTR)
+            .displayName("StanfordCoreNLPClient Response Compression")
+            .description(
+                    "Ask the StanfordCoreNLPClient hosts to gzip their responses, which are inflated on arrival. Annotated documents are many times larger than the text sent, so this saves the most bandwidth, at the cost of CPU on both ends")
+            .required(true).allowableValues("true", "false").defaultValue("false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+    public static final PropertyDescriptor PACK_LENGTH_PROPERTY = new PropertyDescriptor.Builder()
+            .name(PACK_LENGTH_ATTR)
+            .displayName("StanfordCoreNLPClient Pack Length")
+            .description(
+                    "Longest document, in characters, that short texts analyzed together are packed into, separated by blank lines, so the StanfordCoreNLPClient hosts annotate them in a single round trip. Entity mentions are split back per text by their offsets. Blank lines must end sentences, so \"ssplit.newlineIsSentenceBreak\" is set to \"two\" unless the props say otherwise, and packing is off when they set it to \"never\" (0 never packs)")
+            .required(true).defaultValue("0").addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor LOCAL_MAX_LENGTH_PROPERTY = new PropertyDescriptor.Builder()
+            .name(LOCAL_MAX_LENGTH_ATTR)
+            .displayName("Hybrid Local Max Length")
+            .description(
+                    "With StanfordCoreNLPClient hosts, also load a local pipeline and annotate texts, or chunks of them, up to this many characters with it, saving the round trip. Longer ones are sent to the hosts (if not specified, everything is sent to the hosts)")
+            .required(false).addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor LOCAL_MAX_QUEUE_PROPERTY = new PropertyDescriptor.Builder()
+            .name(LOCAL_MAX_QUEUE_ATTR)
+            .displayName("Hybrid Local Max Queue Depth")
+            .description(
+                    "Number of texts waiting on or being annotated by the local pipeline of the hybrid mode from which short texts overflow to the StanfordCoreNLPClient hosts too (0 never overflows)")
+            .required(true).defaultValue("0").addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor BATCH_SIZE_PROPERTY = new PropertyDescriptor.Builder().name(BATCH_SIZE_ATTR)
+            .displayName("Batch Size")
+            .description(
+                    "Maximum number of flow files to pull from the queue and annotate together in a single trigger, spread across the configured \"threads\" of the StanfordCoreNLP props")
+            .required(true).defaultValue("1").addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+    public static final PropertyDescriptor PIPELINE_SERVICE_PROPERTY = new PropertyDescriptor.Builder()
+            .name(PIPELINE_SERVICE_ATTR)
+            .displayName("StanfordCoreNLP Pipeline Service")
+            .description(
+                    "Controller service that shares loaded StanfordCoreNLP models between processors with identical props (used for the local pipeline: when no host is specified, or when Hybrid Local Max Length routes short texts to a local pipeline alongside the hosts)")
+            .required(false).identifiesControllerService(StanfordCoreNLPPipelineService.class).build();
+
+    public static final PropertyDescriptor CACHE_SIZE_PROPERTY = new PropertyDescriptor.Builder().name(CACHE_SIZE_ATTR)
+            .displayName("Result Cache Size")
+            .description(
+                    "Number of results to keep in memory, so that a text seen again with the same entity types is not analyzed again (0 disables the cache)")
+            .required(true).defaultValue("0").addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor CACHE_MAX_MEMORY_PROPERTY = new PropertyDescriptor.Builder()
+            .name(CACHE_MAX_MEMORY_ATTR)
+            .displayName("Result Cache Max Memory")
+            .description("Estimated heap the cached results may take up before the least recently used are evicted")
+            .required(true).defaultValue("64 MB").addValidator(StandardValidators.DATA_SIZE_VALIDATOR).build();
+    public static final PropertyDescriptor CACHE_TTL_PROPERTY = new PropertyDescriptor.Builder().name(CACHE_TTL_ATTR)
+            .displayName("Result Cache TTL")
+            .description("How long a cached result is used before the text is analyzed again")
+            .required(true).defaultValue("1 hour").addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+    public static final PropertyDescriptor MAX_CHUNK_LENGTH_PROPERTY = new PropertyDescriptor.Builder()
+            .name(MAX_CHUNK_LENGTH_ATTR)
+            .displayName("Max Chunk Length")
+            .description(
+                    "Longest text, in characters, analyzed as a single document. Longer texts are split at paragraph and sentence boundaries into chunks that are analyzed in parallel, on the configured \"threads\" or spread across the StanfordCoreNLPClient hosts (0 never splits)")
+            .required(true).defaultValue("0").addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor STREAMING_THRESHOLD_PROPERTY = new PropertyDescriptor.Builder()
+            .name(STREAMING_THRESHOLD_ATTR)
+            .displayName("Streaming Threshold")
+            .description(
+                    "Size from which plain text flow files, analyzed without a JSON path, are read and analyzed window by window instead of whole, so memory use does not grow with the flow file. Windows are Max Chunk Length characters long, or " + DEFAULT_WINDOW_LENGTH + " when it is 0. The content is replaced by the entities found and the \"output\" attribute is not written (if not specified, flow files are always read whole)")
+            .required(false).addValidator(StandardValidators.DATA_SIZE_VALIDATOR).build();
+
+    public static final PropertyDescriptor PRUNE_ANNOTATORS_PROPERTY = new PropertyDescriptor.Builder()
+            .name(PRUNE_ANNOTATORS_ATTR)
+            .displayName("Prune Annotators")
+            .description(
+                    "Only run the annotators and NER features the configured entity types need, so models for parsing, coreference, SUTime, numeric or fine grained NER are not loaded unless their tags are extracted. Off by default, since it changes which annotators run for props that list more than NER needs (ignored when the entity types use expression language)")
+            .required(true).allowableValues("true", "false").defaultValue("false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+
+    public static final PropertyDescriptor PRE_FILTER_MIN_LENGTH_PROPERTY = new PropertyDescriptor.Builder()
+            .name(PRE_FILTER_MIN_LENGTH_ATTR)
+            .displayName("Pre-Filter Min Length")
+            .description(
+                    "Texts shorter than this many characters are not analyzed and get empty entity lists and the \"skipped\" attribute")
+            .required(true).defaultValue("0").addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+    public static final PropertyDescriptor PRE_FILTER_PATTERN_PROPERTY = new PropertyDescriptor.Builder()
+            .name(PRE_FILTER_PATTERN_ATTR)
+            .displayName("Pre-Filter Pattern")
+            .description(
+                    "Regular expression a text must contain a match of to be analyzed, such as a list of known names, otherwise it gets empty entity lists and the \"skipped\" attribute")
+            .required(false).addValidator(StandardValidators.REGULAR_EXPRESSION_VALIDATOR).build();
+    public static final PropertyDescriptor PRE_FILTER_CAPITALIZED_PROPERTY = new PropertyDescriptor.Builder()
+            .name(PRE_FILTER_CAPITALIZED_ATTR)
+            .displayName("Pre-Filter Require Capitalized Word")
+            .description(
+                    "Only analyze texts with a capitalized word that does not start a sentence, others get empty entity lists and the \"skipped\" attribute (not suited to entity types such as date or money)")
+            .required(true).allowableValues("true", "false").defaultValue("false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+
+    public static final PropertyDescriptor METRICS_LOG_INTERVAL_PROPERTY = new PropertyDescriptor.Builder()
+            .name(METRICS_LOG_INTERVAL_ATTR)
+            .displayName("Metrics Log Interval")
+            .description(
+                    "How often to log the p50, p95 and p99 latencies of each stage (read, jsonPath, serialize, roundTrip, deserialize, annotate, extract, analyze, write) and the time each annotator of a local pipeline took (0 sec disables)")
+            .required(true).defaultValue("5 min").addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+    public static final PropertyDescriptor TIMING_ATTRIBUTE_PROPERTY = new PropertyDescriptor.Builder()
+            .name(TIMING_ATTRIBUTE_ATTR)
+            .displayName("Timing Attribute")
+            .description("Whether to write the milliseconds each flow file spent in each stage to the \"timing\" attribute")
+            .required(true).allowableValues("true", "false").defaultValue("false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+
+    public static final PropertyDescriptor BACKGROUND_WARM_UP_PROPERTY = new PropertyDescriptor.Builder()
+            .name(BACKGROUND_WARM_UP_ATTR)
+            .displayName("Background Warm-Up")
+            .description(
+                    "Load the models and run a few warm-up documents through the pipeline on a background thread when the processor is scheduled, yielding until it is ready, instead of loading them before the processor starts. A failed load is logged once and retried after 10 seconds, the delay doubling with each further failure up to 10 minutes, while triggers in between only yield")
+            .required(true).allowableValues("true", "false").defaultValue("true")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+    public static final PropertyDescriptor MODEL_CACHE_DIR_PROPERTY = new PropertyDescriptor.Builder()
+            .name(MODEL_CACHE_DIR_ATTR)
+            .displayName("Model Cache Directory")
+            .description(
+                    "Directory to keep decompressed copies of the gzipped models a local pipeline loads in, so they are not decompressed again on every start (if not specified, models are read from the models jar)")
+            .required(false).addValidator(StandardValidators.createDirectoryExistsValidator(false, true)).build();
+
     public static final Relationship SUCCESS_RELATIONSHIP = new Relationship.Builder().name("success")
             .description("Successfully analyzed text").build();
 
     public static final Relationship FAILURE_RELATIONSHIP = new Relationship.Builder().name("failure")
             .description("Failed to analyze text").build();
 
-    private List<PropertyDescriptor> descriptors;
+    public static final Relationship RETRY_RELATIONSHIP = new Relationship.Builder().name("retry")
+            .description(
+                    "Failed to analyze text because the StanfordCoreNLPClient hosts were unreachable, overloaded or are recovering, may succeed if tried again")
+            .build();
+
+    private static final Gson GSON = new Gson();
+
+    private static final Configuration JSON_PATH_CONF = Configuration.builder().options(Option.ALWAYS_RETURN_LIST)
+            .build();
+
+    private static final int MAX_COMPILED_PATHS = 256;
+
+    private static final int WARM_UP_RUNS = 5;
+
+    private static final long WARM_UP_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final long MAX_WARM_UP_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final String WARM_UP_TYPES = "location,organization,person";
+
+    private static final String WARM_UP_TEXT = "Barack Obama was born in Hawaii. He was elected president of the United States in 2008 "
+            + "and met Angela Merkel in Berlin. Apple Inc. opened a new office in London on Monday, "
+            + "and Microsoft Corporation announced a partnership with the University of Oxford.";
+
+    private final Map<String, JsonPath> compiledPaths = new ConcurrentHashMap<String, JsonPath>();
+
+    List<PropertyDescriptor> descriptors;
 
     private Set<Relationship> relationships;
 
-    private StanfordCoreNLPService service;
+    // the service and the settings read with it, replaced as a whole
+    private volatile Settings settings;
+
+    private volatile CompletableFuture<Settings> warmUp;
+
+    private volatile Thread warmUpThread;
+
+    // the warm-ups that failed in a row, and when the last failure allows the next one, guarded by this
+    private int warmUpFailures;
+
+    private long warmUpRetryAt;
+
+    private final AtomicLong reportedConcurrencyLimit = new AtomicLong();
 
     @Override
     protected void init(final ProcessorInitializationContext context) {
         final List<PropertyDescriptor> descriptors = new ArrayList<PropertyDescriptor>();
         descriptors.add(ENTITIES_PROPERTY);
         descriptors.add(PATH_PROPERTY);
+        descriptors.add(CHARSET_PROPERTY);
         descriptors.add(PROPS_PROPERTY);
         descriptors.add(HOST_PROPERTY);
         descriptors.add(PORT_PROPERTY);
         descriptors.add(KEY_PROPERTY);
         descriptors.add(SECRET_PROPERTY);
+        descriptors.add(HEALTH_CHECK_PROPERTY);
+        descriptors.add(MAX_IN_FLIGHT_PROPERTY);
+        descriptors.add(ADAPTIVE_CONCURRENCY_PROPERTY);
+        descriptors.add(POOL_SIZE_PROPERTY);
+        descriptors.add(CONNECT_TIMEOUT_PROPERTY);
+        descriptors.add(SOCKET_TIMEOUT_PROPERTY);
+        descriptors.add(LEASE_TIMEOUT_PROPERTY);
+        descriptors.add(MAX_RETRIES_PROPERTY);
+        descriptors.add(RETRY_BACKOFF_PROPERTY);
+        descriptors.add(MAX_RETRY_BACKOFF_PROPERTY);
+        descriptors.add(BREAKER_THRESHOLD_PROPERTY);
+        descriptors.add(BREAKER_DURATION_PROPERTY);
+        descriptors.add(MENTIONS_ONLY_PROPERTY);
+        descriptors.add(COMPRESSION_THRESHOLD_PROPERTY);
+        descriptors.add(RESPONSE_COMPRESSION_PROPERTY);
+        descriptors.add(PACK_LENGTH_PROPERTY);
+        descriptors.add(LOCAL_MAX_LENGTH_PROPERTY);
+        descriptors.add(LOCAL_MAX_QUEUE_PROPERTY);
+        descriptors.add(BATCH_SIZE_PROPERTY);
+        descriptors.add(PIPELINE_SERVICE_PROPERTY);
+        descriptors.add(CACHE_SIZE_PROPERTY);
+        descriptors.add(CACHE_MAX_MEMORY_PROPERTY);
+        descriptors.add(CACHE_TTL_PROPERTY);
+        descriptors.add(MAX_CHUNK_LENGTH_PROPERTY);
+        descriptors.add(STREAMING_THRESHOLD_PROPERTY);
+        descriptors.add(PRUNE_ANNOTATORS_PROPERTY);
+        descriptors.add(PRE_FILTER_MIN_LENGTH_PROPERTY);
+        descriptors.add(PRE_FILTER_PATTERN_PROPERTY);
+        descriptors.add(PRE_FILTER_CAPITALIZED_PROPERTY);
+        descriptors.add(METRICS_LOG_INTERVAL_PROPERTY);
+        descriptors.add(TIMING_ATTRIBUTE_PROPERTY);
+        descriptors.add(BACKGROUND_WARM_UP_PROPERTY);
+        descriptors.add(MODEL_CACHE_DIR_PROPERTY);
         this.descriptors = Collections.unmodifiableList(descriptors);
 
         final Set<Relationship> relationships = new HashSet<Relationship>();
         relationships.add(SUCCESS_RELATIONSHIP);
         relationships.add(FAILURE_RELATIONSHIP);
+        relationships.add(RETRY_RELATIONSHIP);
         this.relationships = Collections.unmodifiableSet(relationships);
     }
 
@@ -160,66 +492,247 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
     @OnScheduled
     public void onScheduled(final ProcessContext context) throws Exception {
         getLogger().debug("OnScheduled called for StanfordCoreNLPProcessor, refreshing StanfordCoreNLPService");
-        service = new StanfordCoreNLPService(createPipeline(context));
+        releaseService();
+        if (context.getProperty(BACKGROUND_WARM_UP_ATTR).asBoolean()) {
+            warmUp = startWarmUp(context);
+        } else {
+            settings = createService(context);
+        }
+    }
+
+    @OnStopped
+    public void onStopped() {
+        releaseService();
     }
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-        ensureService(context);
+        final Settings settings = ensureService(context);
+        if (settings == null) {
+            return;
+        }
+        final StanfordCoreNLPService service = settings.service;
 
-        FlowFile flowFile = session.get();
-        if (flowFile == null) {
-            flowFile = session.create();
+        final int batchSize = context.getProperty(BATCH_SIZE_ATTR).asInteger();
+        final List<FlowFile> flowFiles = session.get(batchSize);
+        if (flowFiles.isEmpty()) {
+            return;
         }
 
-        final String flowFileText = getTextFromSession(session, flowFile);
+        final List<FlowFile> batch = new ArrayList<FlowFile>(flowFiles.size());
+        final List<String> texts = new ArrayList<String>(flowFiles.size());
+        final List<String> entityTypesList = new ArrayList<String>(flowFiles.size());
+        final List<Map<String, Long>> timings = new ArrayList<Map<String, Long>>(flowFiles.size());
+        int skipped = 0;
+        for (final FlowFile flowFile : flowFiles) {
+            final Map<String, Long> timing = new LinkedHashMap<String, Long>();
+            final String jsonPath = context.getProperty(PATH_ATTR).evaluateAttributeExpressions(flowFile).getValue();
+            final String entityTypes = context.getProperty(ENTITIES_ATTR).evaluateAttributeExpressions(flowFile).getValue();
+            if (settings.streamingThreshold >= 0 && flowFile.getSize() >= settings.streamingThreshold
+                    && (jsonPath == null || jsonPath.isEmpty())) {
+                streamEntities(session, settings, flowFile, entityTypes, timing);
+                continue;
+            }
 
-        if (flowFileText == null || flowFileText.isEmpty()) {
-            getLogger().error("Empty flow file cannot be analyzed");
-            session.transfer(flowFile, FAILURE_RELATIONSHIP);
-            return;
+            long start = System.nanoTime();
+            final String flowFileText = getTextFromSession(session, flowFile, settings.charset);
+            start = settings.record(timing, StanfordCoreNLPMetrics.READ, start);
+
+            if (flowFileText == null || flowFileText.isEmpty()) {
+                getLogger().error("Empty flow file cannot be analyzed");
+                session.transfer(flowFile, FAILURE_RELATIONSHIP);
+                continue;
+            }
+
+            final String text = getTextFromJson(flowFileText, jsonPath);
+            settings.record(timing, StanfordCoreNLPMetrics.JSON_PATH, start);
+            if (service.skips(text)) {
+                writeEntities(session, settings, session.putAttribute(flowFile, SKIPPED_ATTR, "true"),
+                        StanfordCoreNLPService.emptyEntities(entityTypes), timing);
+                skipped++;
+                continue;
+            }
+
+            batch.add(flowFile);
+            texts.add(text);
+            entityTypesList.add(entityTypes);
+            timings.add(timing);
         }
 
-        final String jsonPath = context.getProperty(PATH_ATTR).evaluateAttributeExpressions(flowFile).getValue();
-        final String entityTypes = context.getProperty(ENTITIES_ATTR).evaluateAttributeExpressions(flowFile).getValue();
-        final String text = getTextFromJson(flowFileText, jsonPath);
-        Map<String, List<String>> entityMap;
+        if (skipped > 0) {
+            session.adjustCounter("Pre-Filter Skipped", skipped, false);
+        }
 
-        try {
-            entityMap = service.extractEntities(text, entityTypes);
-        } catch (final RuntimeException e) {
-            getLogger().error("Failed to analyze flow file text, check nifi-app.log for more details. Error: " + e.getMessage());
-            session.transfer(flowFile, FAILURE_RELATIONSHIP);
-            return;
+        if (!batch.isEmpty()) {
+            final long submitted = System.nanoTime();
+            route(session, settings, batch, service.extractEntities(texts, entityTypesList), timings, submitted);
+            reportCacheCounters(session, settings);
         }
+        reportMetrics(context, session, settings);
+    }
 
-        Map<String, Object> flowFileJsonMap;
+    /**
+     * Routes each flow file as soon as its entities are ready. With a remote
+     * pipeline the whole batch is sent to the server at once, so one task keeps
+     * many server threads busy.
+     */
+    private void route(final ProcessSession session, final Settings settings, final List<FlowFile> batch,
+            final List<CompletableFuture<Map<String, List<String>>>> futures, final List<Map<String, Long>> timings,
+            final long submitted) {
+        final BlockingQueue<Integer> completed = new LinkedBlockingQueue<Integer>();
+        final long[] completedAt = new long[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            final int index = i;
+            futures.get(i).whenComplete((entities, t) -> {
+                completedAt[index] = System.nanoTime();
+                completed.add(index);
+            });
+        }
 
-        final Gson gson = new Gson();
-        try {
-            flowFileJsonMap = gson.fromJson(flowFileText, Map.class);
-        } catch (final JsonSyntaxException e) {
-            e.printStackTrace();
-            getLogger().warn("Failed to parse flow file text as json, writing new flow file from blank json document");
-            flowFileJsonMap = new HashMap<String, Object>();
+        for (int n = 0; n < batch.size(); n++) {
+            final int index;
+            try {
+                index = completed.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("Interrupted while waiting on StanfordCoreNLPClient responses", e);
+            }
+
+            final FlowFile flowFile = batch.get(index);
+            settings.record(timings.get(index), StanfordCoreNLPMetrics.ANALYZE, submitted, completedAt[index]);
+            final Map<String, List<String>> entityMap;
+            try {
+                entityMap = futures.get(index).join();
+            } catch (final RuntimeException e) {
+                getLogger().error("Failed to analyze flow file text, check nifi-app.log for more details. Error: " + e.getMessage());
+                transferFailure(session, flowFile, e);
+                continue;
+            }
+            writeEntities(session, settings, flowFile, entityMap, timings.get(index));
         }
+    }
 
-        try {
-            for (final String k : entityMap.keySet()) {
-                flowFileJsonMap.put(k, entityMap.get(k));
+    /**
+     * Adds the time spent in each stage to the processor counters, and logs the
+     * stage latencies and annotator timing when the log interval has passed.
+     */
+    void reportMetrics(final ProcessContext context, final ProcessSession session, final Settings settings) {
+        final StanfordCoreNLPService service = settings.service;
+        for (final Map.Entry<String, Long> entry : settings.metrics.takeNewMillis().entrySet()) {
+            session.adjustCounter("Time in " + entry.getKey() + " (ms)", entry.getValue(), false);
+        }
+        final int limit = service.concurrencyLimit();
+        if (limit >= 0) {
+            // counters only add up, adjusting by the change keeps this one at the current limit
+            final long change = limit - reportedConcurrencyLimit.getAndSet(limit);
+            if (change != 0) {
+                session.adjustCounter("Concurrency Limit", change, false);
             }
+        }
+        if (service.isHybrid()) {
+            final long local = service.getRoutedLocal();
+            final long remote = service.getRoutedRemote();
+            final long newLocal = local - settings.reportedRoutedLocal.getAndSet(local);
+            final long newRemote = remote - settings.reportedRoutedRemote.getAndSet(remote);
+            if (newLocal > 0) {
+                session.adjustCounter("Routed Local", newLocal, false);
+            }
+            if (newRemote > 0) {
+                session.adjustCounter("Routed Remote", newRemote, false);
+            }
+        }
 
-            final String entityJson = gson.toJson(entityMap);
-            final String finalJson = gson.toJson(flowFileJsonMap);
+        final long interval = context.getProperty(METRICS_LOG_INTERVAL_ATTR).asTimePeriod(TimeUnit.MILLISECONDS);
+        final long now = System.currentTimeMillis();
+        final long next = settings.nextMetricsLog.get();
+        if (interval <= 0 || now < next || !settings.nextMetricsLog.compareAndSet(next, now + interval)) {
+            return;
+        }
+        if (next == 0) {
+            // the first interval starts now
+            return;
+        }
+        final String latencies = settings.metrics.drainSummary();
+        if (latencies.isEmpty()) {
+            return;
+        }
+        String summary = "Stage latencies: " + latencies;
+        if (limit >= 0) {
+            summary += ", concurrency limit " + limit;
+        }
+        final String annotatorTiming = service.timingInformation();
+        if (annotatorTiming != null && !annotatorTiming.isEmpty()) {
+            summary += "\n" + annotatorTiming;
+        }
+        getLogger().info(summary);
+    }
 
-            flowFile = session.putAttribute(flowFile, OUTPUT_ATTR, entityJson);
-            flowFile = session.write(flowFile, new OutputStreamCallback() {
-                @Override
-                public void process(final OutputStream out) throws IOException {
-                    out.write(finalJson.getBytes());
+    /**
+     * Adds the cache hits and misses since the last report to the processor counters.
+     */
+    void reportCacheCounters(final ProcessSession session, final Settings settings) {
+        final EntityCache cache = settings.service.getCache();
+        if (cache == null) {
+            return;
+        }
+        final long hits = cache.getHits();
+        final long misses = cache.getMisses();
+        final long newHits = hits - settings.reportedCacheHits.getAndSet(hits);
+        final long newMisses = misses - settings.reportedCacheMisses.getAndSet(misses);
+        if (newHits > 0) {
+            session.adjustCounter("Result Cache Hits", newHits, false);
+        }
+        if (newMisses > 0) {
+            session.adjustCounter("Result Cache Misses", newMisses, false);
+        }
+    }
+
+    /**
+     * Routes a flow file that could not be analyzed to retry, penalized, when the
+     * StanfordCoreNLPClient hosts were only temporarily unavailable or too slow to
+     * answer, otherwise to failure.
+     */
+    void transferFailure(final ProcessSession session, final FlowFile flowFile, final Throwable e) {
+        if (StanfordCoreNLPClientSimple.isRetryable(e) || StanfordCoreNLPClientSimple.isTimedOut(e)) {
+            session.transfer(session.penalize(flowFile), RETRY_RELATIONSHIP);
+        } else {
+            session.transfer(flowFile, FAILURE_RELATIONSHIP);
+        }
+    }
+
+    /**
+     * Streams the flow file content through to its new version, putting the
+     * entities in on the way. Content that is not a JSON object is replaced by
+     * a document holding only the entities.
+     */
+    private void writeEntities(final ProcessSession session, final Settings settings, FlowFile flowFile,
+            final Map<String, List<String>> entityMap, final Map<String, Long> timing) {
+        final long start = System.nanoTime();
+        try {
+            flowFile = session.putAttribute(flowFile, OUTPUT_ATTR, GSON.toJson(entityMap));
+            try {
+                flowFile = session.write(flowFile, new StreamCallback() {
+                    @Override
+                    public void process(final InputStream in, final OutputStream out) throws IOException {
+                        EntityJsonWriter.merge(in, out, entityMap, settings.charset);
+                    }
+                });
+            } catch (final ProcessException e) {
+                if (!(e.getCause() instanceof EntityJsonWriter.NotAnObjectException)) {
+                    getLogger().warn("Failed to parse flow file text as json, writing new flow file from blank json document");
                 }
-            });
+                flowFile = session.write(flowFile, new OutputStreamCallback() {
+                    @Override
+                    public void process(final OutputStream out) throws IOException {
+                        EntityJsonWriter.write(out, entityMap);
+                    }
+                });
+            }
 
+            settings.record(timing, StanfordCoreNLPMetrics.WRITE, start);
+            if (settings.timingAttribute) {
+                flowFile = session.putAttribute(flowFile, TIMING_ATTR, timingToJson(timing));
+            }
             session.transfer(flowFile, SUCCESS_RELATIONSHIP);
             return;
         } catch (final Exception e) {
@@ -230,14 +743,109 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
         session.transfer(flowFile, FAILURE_RELATIONSHIP);
     }
 
-    private String getTextFromSession(final ProcessSession session, final FlowFile flowFile) {
+    /**
+     * Analyzes plain text too large to hold in memory a window at a time, as it
+     * is read, annotating as many windows at once as the service has threads.
+     * Only the entities found are kept, they replace the content.
+     */
+    private void streamEntities(final ProcessSession session, final Settings settings, FlowFile flowFile,
+            final String entityTypes, final Map<String, Long> timing) {
+        final StanfordCoreNLPService service = settings.service;
+        final long start = System.nanoTime();
+        final Map<String, List<String>> entityMap = StanfordCoreNLPService.emptyEntities(entityTypes);
+        final AtomicLong windows = new AtomicLong();
+        final AtomicLong analyzed = new AtomicLong();
+        try {
+            session.read(flowFile, new InputStreamCallback() {
+                @Override
+                public void process(final InputStream in) throws IOException {
+                    try (final TextChunker.ChunkReader reader = new TextChunker.ChunkReader(
+                            new InputStreamReader(in, settings.charset), settings.windowLength)) {
+                        final List<String> group = new ArrayList<String>(service.getThreads());
+                        String window;
+                        while ((window = reader.next()) != null) {
+                            windows.incrementAndGet();
+                            if (service.skips(window)) {
+                                continue;
+                            }
+                            analyzed.incrementAndGet();
+                            group.add(window);
+                            if (group.size() == service.getThreads()) {
+                                addEntities(service, entityMap, group, entityTypes);
+                                group.clear();
+                            }
+                        }
+                        addEntities(service, entityMap, group, entityTypes);
+                    }
+                }
+            });
+        } catch (final ProcessException e) {
+            getLogger().error("Failed to analyze flow file text, check nifi-app.log for more details. Error: " + e.getMessage());
+            transferFailure(session, flowFile, e);
+            return;
+        }
+        settings.record(timing, StanfordCoreNLPMetrics.ANALYZE, start);
+        session.adjustCounter("Streamed Windows", windows.get(), false);
+        reportCacheCounters(session, settings);
+        if (analyzed.get() == 0) {
+            // as with a text read whole, a flow file none of whose windows passed the pre-filter was skipped
+            flowFile = session.putAttribute(flowFile, SKIPPED_ATTR, "true");
+            session.adjustCounter("Pre-Filter Skipped", 1, false);
+        }
+
+        final long writeStart = System.nanoTime();
+        flowFile = session.write(flowFile, new OutputStreamCallback() {
+            @Override
+            public void process(final OutputStream out) throws IOException {
+                EntityJsonWriter.write(out, entityMap);
+            }
+        });
+        settings.record(timing, StanfordCoreNLPMetrics.WRITE, writeStart);
+        if (settings.timingAttribute) {
+            flowFile = session.putAttribute(flowFile, TIMING_ATTR, timingToJson(timing));
+        }
+        session.transfer(flowFile, SUCCESS_RELATIONSHIP);
+    }
+
+    /**
+     * Analyzes the windows together and appends their entities, in order.
+     */
+    private void addEntities(final StanfordCoreNLPService service, final Map<String, List<String>> entityMap,
+            final List<String> windows, final String entityTypes) {
+        if (windows.isEmpty()) {
+            return;
+        }
+        final List<CompletableFuture<Map<String, List<String>>>> futures = service.extractEntities(windows,
+                Collections.nCopies(windows.size(), entityTypes));
+        for (final CompletableFuture<Map<String, List<String>>> future : futures) {
+            final Map<String, List<String>> entities;
+            try {
+                entities = future.join();
+            } catch (final CompletionException e) {
+                throw new ProcessException("Failed to analyze text window", e.getCause());
+            }
+            for (final Map.Entry<String, List<String>> entry : entities.entrySet()) {
+                entityMap.get(entry.getKey()).addAll(entry.getValue());
+            }
+        }
+    }
+
+    static String timingToJson(final Map<String, Long> timing) {
+        final Map<String, Double> millis = new LinkedHashMap<String, Double>();
+        for (final Map.Entry<String, Long> entry : timing.entrySet()) {
+            millis.put(entry.getKey(), Math.round(entry.getValue() / 1000.0) / 1000.0);
+        }
+        return GSON.toJson(millis);
+    }
+
+    private String getTextFromSession(final ProcessSession session, final FlowFile flowFile, final Charset charset) {
         final AtomicReference<String> atomicText = new AtomicReference<>();
 
         session.read(flowFile, new InputStreamCallback() {
             @Override
             public void process(final InputStream in) throws IOException {
                 try {
-                    final String rawText = IOUtils.toString(in);
+                    final String rawText = IOUtils.toString(in, charset.name());
                     atomicText.set(rawText);
                 } catch (final NullPointerException e) {
                     e.printStackTrace();
@@ -257,23 +865,23 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
         return text;
     }
 
-    private String getTextFromJson(final String flowFileText, final String jsonPath) {
+    /**
+     * Parses the flow file text once and joins the values the path selects,
+     * including the values of selected objects, such as $.['title','content'].
+     */
+    String getTextFromJson(final String flowFileText, final String jsonPath) {
         if (jsonPath == null || jsonPath.isEmpty()) {
             return flowFileText;
         }
 
         try {
-            final Configuration conf = Configuration.builder().options(Option.ALWAYS_RETURN_LIST).build();
-            final List<String> result = JsonPath.using(conf).parse(flowFileText).read(jsonPath);
-            final String combined = String.join(" ", result);
-            return combined;
-        } catch (final ClassCastException e) {
-            final LinkedHashMap<String, Object> resultMap = JsonPath.read(flowFileText, jsonPath);
-            String combined = "";
-            for (final String k : resultMap.keySet()) {
-                combined += " " + resultMap.get(k);
+            final Object document = JSON_PATH_CONF.jsonProvider().parse(flowFileText);
+            final List<Object> result = compile(jsonPath).read(document, JSON_PATH_CONF);
+            final StringBuilder combined = new StringBuilder();
+            for (final Object value : result) {
+                append(combined, value);
             }
-            return combined;
+            return combined.toString();
         } catch (final Exception e) {
             e.printStackTrace();
             getLogger().warn("Failed to parse json using specified json path, analyzing flow file as text");
@@ -282,10 +890,55 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
         return flowFileText;
     }
 
+    /**
+     * Appends a matched value, the values of an object and the elements of an
+     * array one by one, skipping JSON nulls.
+     */
+    private static void append(final StringBuilder combined, final Object value) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Map) {
+            for (final Object v : ((Map<?, ?>) value).values()) {
+                append(combined, v);
+            }
+            return;
+        }
+        if (value instanceof Iterable) {
+            for (final Object v : (Iterable<?>) value) {
+                append(combined, v);
+            }
+            return;
+        }
+        if (combined.length() > 0) {
+            combined.append(' ');
+        }
+        combined.append(value);
+    }
+
+    /**
+     * Compiles each distinct path once. Paths are evaluated per flow file, so
+     * the cache is dropped when expression language keeps producing new ones.
+     */
+    private JsonPath compile(final String jsonPath) {
+        JsonPath compiled = compiledPaths.get(jsonPath);
+        if (compiled == null) {
+            if (compiledPaths.size() >= MAX_COMPILED_PATHS) {
+                compiledPaths.clear();
+            }
+            compiled = JsonPath.compile(jsonPath);
+            compiledPaths.put(jsonPath, compiled);
+        }
+        return compiled;
+    }
+
     private int getPort(final ProcessContext context) {
-        int port;
+        int port = 9000;
         try {
-            port = context.getProperty(PORT_ATTR).asInteger();
+            final Integer configured = context.getProperty(PORT_ATTR).asInteger();
+            if (configured != null) {
+                port = configured;
+            }
         } catch (final NumberFormatException e) {
             e.printStackTrace();
             getLogger().error("Failed to read port as integer, using default 9000");
@@ -294,29 +947,240 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
         return port;
     }
 
-    private AnnotationPipeline createPipeline(final ProcessContext context) {
+    private Settings createService(final ProcessContext context) {
         final String jsonProps = context.getProperty(PROPS_ATTR).getValue();
-        final Properties props = jsonToProps(jsonProps);
+        Properties props = jsonToProps(jsonProps);
+        final String entityTypes = context.getProperty(ENTITIES_ATTR).getValue();
+        if (context.getProperty(PRUNE_ANNOTATORS_ATTR).asBoolean() && entityTypes != null
+                && !context.getProperty(ENTITIES_ATTR).isExpressionLanguagePresent()) {
+            props = StanfordCoreNLPService.pruneProps(props, entityTypes);
+        }
+        final StanfordCoreNLPMetrics metrics = new StanfordCoreNLPMetrics();
+        // subclasses that decode the content some other way, such as with a record reader, drop the property
+        final Charset charset = getSupportedPropertyDescriptors().contains(CHARSET_PROPERTY)
+                ? Charset.forName(context.getProperty(CHARSET_PROPERTY).getValue())
+                : StandardCharsets.UTF_8;
+        final Double threshold = context.getProperty(STREAMING_THRESHOLD_PROPERTY).asDataSize(DataUnit.B);
+        final int maxChunkLength = context.getProperty(MAX_CHUNK_LENGTH_ATTR).asInteger();
+        int packLength = context.getProperty(PACK_LENGTH_ATTR).asInteger();
+        if (packLength > 0 && context.getProperty(HOST_ATTR).getValue() != null
+                && !StanfordCoreNLPService.preparePacking(props)) {
+            getLogger().warn("Not packing texts, the props do not end sentences at blank lines");
+            packLength = 0;
+        }
         final String host = context.getProperty(HOST_ATTR).getValue();
+        final Integer localMaxLength = context.getProperty(LOCAL_MAX_LENGTH_ATTR).asInteger();
+        final boolean hybrid = host != null && localMaxLength != null;
+        final AnnotationPipeline pipeline = hybrid ? createLocalPipeline(context, props)
+                : createPipeline(context, props, metrics);
+        // a local pipeline borrowed from the pipeline service goes back to it with the service that used it
+        final StanfordCoreNLPPipelineService pool = (host == null || hybrid)
+                && context.getProperty(PIPELINE_SERVICE_ATTR).isSet()
+                        ? context.getProperty(PIPELINE_SERVICE_ATTR).asControllerService(StanfordCoreNLPPipelineService.class)
+                        : null;
+        final StanfordCoreNLPClientSimple remote = hybrid ? createClient(context, host, props, metrics) : null;
+        final int threads = StanfordCoreNLPService.getThreads(props);
+        final StanfordCoreNLPService service = new StanfordCoreNLPService.Builder(pipeline)
+                .threads(threads)
+                // concurrent tasks share the pipeline, at most one document per core is annotated locally
+                .maxConcurrency(Math.max(threads, Runtime.getRuntime().availableProcessors()))
+                .cache(createCache(context))
+                .maxChunkLength(maxChunkLength)
+                .packLength(packLength)
+                .remote(remote, hybrid ? localMaxLength : 0, context.getProperty(LOCAL_MAX_QUEUE_ATTR).asInteger())
+                .preFilter(createPreFilter(context))
+                .metrics(metrics)
+                .onShutdown(pool == null ? null : () -> pool.release(pipeline))
+                .build();
+        return new Settings(service, metrics, context.getProperty(TIMING_ATTRIBUTE_ATTR).asBoolean(), charset,
+                threshold == null ? -1 : threshold.longValue(),
+                maxChunkLength > 0 ? maxChunkLength : DEFAULT_WINDOW_LENGTH);
+    }
+
+    private PreFilter createPreFilter(final ProcessContext context) {
+        final String pattern = context.getProperty(PRE_FILTER_PATTERN_ATTR).getValue();
+        return new PreFilter(context.getProperty(PRE_FILTER_MIN_LENGTH_ATTR).asInteger(),
+                pattern == null ? null : Pattern.compile(pattern),
+                context.getProperty(PRE_FILTER_CAPITALIZED_ATTR).asBoolean());
+    }
 
-        if (host == null) {
-            return StanfordCoreNLPService.createPipeline(props);
+    private EntityCache createCache(final ProcessContext context) {
+        final int size = context.getProperty(CACHE_SIZE_ATTR).asInteger();
+        if (size == 0) {
+            return null;
         }
+        return new EntityCache(size, context.getProperty(CACHE_MAX_MEMORY_ATTR).asDataSize(DataUnit.B).longValue(),
+                context.getProperty(CACHE_TTL_ATTR).asTimePeriod(TimeUnit.MILLISECONDS));
+    }
 
+    private AnnotationPipeline createPipeline(final ProcessContext context, final Properties props,
+            final StanfordCoreNLPMetrics metrics) {
+        final String host = context.getProperty(HOST_ATTR).getValue();
+        return host == null ? createLocalPipeline(context, props) : createClient(context, host, props, metrics);
+    }
+
+    private AnnotationPipeline createLocalPipeline(final ProcessContext context, Properties props) {
+        final String cacheDir = context.getProperty(MODEL_CACHE_DIR_ATTR).getValue();
+        if (cacheDir != null) {
+            try {
+                props = ModelCache.apply(props, new File(cacheDir));
+            } catch (final IOException e) {
+                getLogger().warn("Failed to cache decompressed models in {}, loading them from the models jar",
+                        new Object[] { cacheDir, e });
+            }
+        }
+        if (context.getProperty(PIPELINE_SERVICE_ATTR).isSet()) {
+            return context.getProperty(PIPELINE_SERVICE_ATTR).asControllerService(StanfordCoreNLPPipelineService.class)
+                    .acquire(StanfordCoreNLPService.sanitizeProps(props));
+        }
+        return StanfordCoreNLPService.createPipeline(props);
+    }
+
+    private StanfordCoreNLPClientSimple createClient(final ProcessContext context, final String host,
+            final Properties props, final StanfordCoreNLPMetrics metrics) {
         final int port = getPort(context);
         final String key = context.getProperty(KEY_ATTR).getValue();
         final String secret = context.getProperty(SECRET_ATTR).getValue();
+        final Integer poolSize = context.getProperty(POOL_SIZE_ATTR).asInteger();
+        final Double compressionThreshold = context.getProperty(COMPRESSION_THRESHOLD_ATTR).asDataSize(DataUnit.B);
 
-        return StanfordCoreNLPService.createPipeline(props, host, port, key, secret);
+        return new StanfordCoreNLPClientSimple.Builder(StanfordCoreNLPService.sanitizeProps(props))
+                .hosts(host, port)
+                .credentials(key, secret)
+                .healthCheckInterval(context.getProperty(HEALTH_CHECK_ATTR).asTimePeriod(TimeUnit.MILLISECONDS))
+                .maxInFlight(context.getProperty(MAX_IN_FLIGHT_ATTR).asInteger())
+                .adaptiveConcurrency(context.getProperty(ADAPTIVE_CONCURRENCY_ATTR).asBoolean())
+                .poolSize(poolSize == null ? 0 : poolSize)
+                .timeouts(context.getProperty(CONNECT_TIMEOUT_ATTR).asTimePeriod(TimeUnit.MILLISECONDS).intValue(),
+                        context.getProperty(SOCKET_TIMEOUT_ATTR).asTimePeriod(TimeUnit.MILLISECONDS).intValue(),
+                        context.getProperty(LEASE_TIMEOUT_ATTR).asTimePeriod(TimeUnit.MILLISECONDS).intValue())
+                .retries(context.getProperty(MAX_RETRIES_ATTR).asInteger(),
+                        context.getProperty(RETRY_BACKOFF_ATTR).asTimePeriod(TimeUnit.MILLISECONDS),
+                        context.getProperty(MAX_RETRY_BACKOFF_ATTR).asTimePeriod(TimeUnit.MILLISECONDS))
+                .circuitBreaker(context.getProperty(BREAKER_THRESHOLD_ATTR).asInteger(),
+                        context.getProperty(BREAKER_DURATION_ATTR).asTimePeriod(TimeUnit.MILLISECONDS))
+                .mentionsOnly(context.getProperty(MENTIONS_ONLY_ATTR).asBoolean())
+                .compression(compressionThreshold == null ? -1 : compressionThreshold.intValue())
+                .responseCompression(context.getProperty(RESPONSE_COMPRESSION_ATTR).asBoolean())
+                .metrics(metrics)
+                .build();
     }
 
-    private void ensureService(final ProcessContext context) {
-        if (service != null) {
-            return;
+    /**
+     * The service to analyze with, or null while it is warming up in the
+     * background, in which case the processor yields.
+     */
+    Settings ensureService(final ProcessContext context) {
+        final Settings settings = this.settings;
+        if (settings != null) {
+            return settings;
+        }
+        return awaitService(context);
+    }
+
+    // synchronized so concurrent tasks create or adopt a single service
+    private synchronized Settings awaitService(final ProcessContext context) {
+        if (settings != null) {
+            return settings;
+        }
+        final CompletableFuture<Settings> warmUp = this.warmUp;
+        if (warmUp == null) {
+            settings = createService(context);
+            return settings;
+        }
+        if (!warmUp.isDone()) {
+            context.yield();
+            return null;
+        }
+        try {
+            settings = warmUp.join();
+            this.warmUp = null;
+            warmUpFailures = 0;
+            return settings;
+        } catch (final CompletionException e) {
+            final long now = System.currentTimeMillis();
+            if (warmUpRetryAt == 0) {
+                // loading is likely to fail the same way again, report it once and back off
+                final long delay = Math.min(MAX_WARM_UP_RETRY_MILLIS,
+                        WARM_UP_RETRY_MILLIS << Math.min(warmUpFailures, 16));
+                warmUpFailures++;
+                warmUpRetryAt = now + delay;
+                getLogger().error("Failed to load StanfordCoreNLP models, retrying in {} ms",
+                        new Object[] { delay, e.getCause() });
+            } else if (now >= warmUpRetryAt) {
+                warmUpRetryAt = 0;
+                this.warmUp = startWarmUp(context);
+            }
+            context.yield();
+            return null;
         }
+    }
 
-        service = new StanfordCoreNLPService(createPipeline(context));
-        return;
+    /**
+     * Creates the service on a background thread and runs warm-up documents
+     * through it, so the models are loaded and the hot paths compiled before
+     * the first flow file.
+     */
+    private CompletableFuture<Settings> startWarmUp(final ProcessContext context) {
+        final CompletableFuture<Settings> future = new CompletableFuture<Settings>();
+        final Thread thread = new Thread(() -> {
+            Settings created = null;
+            try {
+                final long start = System.nanoTime();
+                created = createService(context);
+                warmUp(created.service);
+                if (future.complete(created)) {
+                    getLogger().info("StanfordCoreNLP ready after {} ms",
+                            new Object[] { TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) });
+                    return;
+                }
+            } catch (final Throwable t) {
+                if (future.completeExceptionally(t)) {
+                    return;
+                }
+            }
+            // the processor stopped without waiting for us, release what was loaded
+            if (created != null) {
+                created.service.shutdown();
+            }
+        }, "StanfordCoreNLP warm-up");
+        thread.setDaemon(true);
+        warmUpThread = thread;
+        thread.start();
+        return future;
+    }
+
+    // annotated directly rather than through extractEntities(text), so warm-up documents stay out of the result cache
+    private void warmUp(final StanfordCoreNLPService service) {
+        for (int i = 0; i < WARM_UP_RUNS && !Thread.currentThread().isInterrupted(); i++) {
+            try {
+                service.extractEntities(service.annotate(WARM_UP_TEXT), WARM_UP_TYPES);
+            } catch (final RuntimeException e) {
+                getLogger().warn("Warm-up document failed, skipping warm-up", e);
+                return;
+            }
+        }
+    }
+
+    private synchronized void releaseService() {
+        final CompletableFuture<Settings> warmUp = this.warmUp;
+        if (warmUp != null) {
+            // rather than wait for the models, the warm-up releases what it loaded once it sees it was cancelled
+            this.warmUp = null;
+            if (warmUp.cancel(false)) {
+                warmUpThread.interrupt();
+            } else if (!warmUp.isCompletedExceptionally()) {
+                // it finished before a task adopted the service
+                warmUp.join().service.shutdown();
+            }
+        }
+        if (settings != null) {
+            settings.service.shutdown();
+        }
+        settings = null;
+        warmUpThread = null;
+        warmUpFailures = 0;
+        warmUpRetryAt = 0;
     }
 
     private Properties jsonToProps(final String jsonProps) {
@@ -324,9 +1188,8 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
         if (jsonProps == null) {
             return props;
         }
-        final Gson gson = new Gson();
         try {
-            final Map<String, Object> jsonMap = gson.fromJson(jsonProps, Map.class);
+            final Map<String, Object> jsonMap = GSON.fromJson(jsonProps, Map.class);
             for (final String k : jsonMap.keySet()) {
                 props.setProperty(k, jsonMap.get(k).toString());
             }
@@ -336,4 +1199,60 @@ public class StanfordCoreNLPProcessor extends AbstractProcessor {
         }
         return props;
     }
+
+    /**
+     * A service and the settings read along with it. Tasks get both from one
+     * volatile field, so they never pair the settings of one schedule with the
+     * service of another, however late a cancelled warm-up finishes.
+     */
+    static final class Settings {
+        final StanfordCoreNLPService service;
+        final StanfordCoreNLPMetrics metrics;
+        final boolean timingAttribute;
+        final Charset charset;
+        final long streamingThreshold;
+        final int windowLength;
+
+        // what was last reported of this service, counters only add up
+        final AtomicLong nextMetricsLog = new AtomicLong();
+        final AtomicLong reportedCacheHits = new AtomicLong();
+        final AtomicLong reportedCacheMisses = new AtomicLong();
+        final AtomicLong reportedRoutedLocal = new AtomicLong();
+        final AtomicLong reportedRoutedRemote = new AtomicLong();
+
+        Settings(final StanfordCoreNLPService service, final StanfordCoreNLPMetrics metrics,
+                final boolean timingAttribute, final Charset charset, final long streamingThreshold,
+                final int windowLength) {
+            this.service = service;
+            this.metrics = metrics;
+            this.timingAttribute = timingAttribute;
+            this.charset = charset;
+            this.streamingThreshold = streamingThreshold;
+            this.windowLength = windowLength;
+        }
+
+        long record(final Map<String, Long> timing, final String stage, final long start) {
+            return record(timing, stage, start, System.nanoTime());
+        }
+
+        /**
+         * Records a stage of a flow file in the metrics and its timing, returns the end of the stage.
+         */
+        long record(final Map<String, Long> timing, final String stage, final long start, final long end) {
+            metrics.record(stage, end - start);
+            timing.put(stage, end - start);
+            return end;
+        }
+
+        /**
+         * Records a stage the flow file passes through more than once, such as
+         * once per record, adding to its timing. Returns the end of the stage.
+         */
+        long accumulate(final Map<String, Long> timing, final String stage, final long start) {
+            final long end = System.nanoTime();
+            metrics.record(stage, end - start);
+            timing.merge(stage, end - start, Long::sum);
+            return end;
+        }
+    }
 }
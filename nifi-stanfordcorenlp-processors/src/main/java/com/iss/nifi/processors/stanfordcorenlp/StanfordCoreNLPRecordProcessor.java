@@ -0,0 +1,301 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.io.StreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+@Tags({ "Stanford", "CoreNLP", "record" })
+@CapabilityDescription("Stanford CoreNLP Processor for flow files of records: the text fields of each record are analyzed and the entities found are added to it as array fields, one per entity type")
+@SeeAlso({ StanfordCoreNLPProcessor.class })
+@WritesAttributes({
+        @WritesAttribute(attribute = "record.count", description = "The number of records written"),
+        @WritesAttribute(attribute = "mime.type", description = "The mime type of the configured Record Writer"),
+        @WritesAttribute(attribute = "timing", description = "Milliseconds the flow file spent in each stage, as JSON, when the Timing Attribute property is set") })
+public class StanfordCoreNLPRecordProcessor extends StanfordCoreNLPProcessor {
+    public static final String RECORD_READER_ATTR = "recordReader";
+    public static final String RECORD_WRITER_ATTR = "recordWriter";
+    public static final String TEXT_FIELDS_ATTR = "textFields";
+    public static final String RECORD_BATCH_SIZE_ATTR = "recordBatchSize";
+
+    public static final String RECORD_COUNT_ATTR = "record.count";
+
+    private static final DataType ENTITIES_TYPE = RecordFieldType.ARRAY
+            .getArrayDataType(RecordFieldType.STRING.getDataType());
+
+    public static final PropertyDescriptor RECORD_READER_PROPERTY = new PropertyDescriptor.Builder()
+            .name(RECORD_READER_ATTR)
+            .displayName("Record Reader")
+            .description("Controller service that reads the records of incoming flow files")
+            .identifiesControllerService(RecordReaderFactory.class).required(true).build();
+    public static final PropertyDescriptor RECORD_WRITER_PROPERTY = new PropertyDescriptor.Builder()
+            .name(RECORD_WRITER_ATTR)
+            .displayName("Record Writer")
+            .description(
+                    "Controller service that writes the records with their entities, its schema must allow an array of strings field per entity type")
+            .identifiesControllerService(RecordSetWriterFactory.class).required(true).build();
+    public static final PropertyDescriptor TEXT_FIELDS_PROPERTY = new PropertyDescriptor.Builder()
+            .name(TEXT_FIELDS_ATTR)
+            .displayName("Text Fields")
+            .description(
+                    "Comma separated names of the record fields whose values are joined and analyzed, such as: title,content")
+            .required(true).expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+    public static final PropertyDescriptor RECORD_BATCH_SIZE_PROPERTY = new PropertyDescriptor.Builder()
+            .name(RECORD_BATCH_SIZE_ATTR)
+            .displayName("Record Batch Size")
+            .description(
+                    "Maximum number of records read ahead and annotated together, spread across the configured \"threads\" of the StanfordCoreNLP props or the in-flight requests to the StanfordCoreNLPClient hosts")
+            .required(true).defaultValue("100").addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        super.init(context);
+
+        // the record fields take the place of the json path, the reader decodes the content,
+        // and a flow file is its own batch
+        final List<PropertyDescriptor> descriptors = new ArrayList<PropertyDescriptor>(this.descriptors);
+        descriptors.remove(PATH_PROPERTY);
+        descriptors.remove(CHARSET_PROPERTY);
+        descriptors.remove(BATCH_SIZE_PROPERTY);
+        descriptors.remove(STREAMING_THRESHOLD_PROPERTY);
+        descriptors.add(0, RECORD_READER_PROPERTY);
+        descriptors.add(1, RECORD_WRITER_PROPERTY);
+        descriptors.add(3, TEXT_FIELDS_PROPERTY);
+        descriptors.add(4, RECORD_BATCH_SIZE_PROPERTY);
+        this.descriptors = Collections.unmodifiableList(descriptors);
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        final Settings settings = ensureService(context);
+        if (settings == null) {
+            return;
+        }
+        final StanfordCoreNLPService service = settings.service;
+        final FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
+
+        final RecordReaderFactory readerFactory = context.getProperty(RECORD_READER_ATTR)
+                .asControllerService(RecordReaderFactory.class);
+        final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER_ATTR)
+                .asControllerService(RecordSetWriterFactory.class);
+        final String entityTypes = context.getProperty(ENTITIES_ATTR).evaluateAttributeExpressions(flowFile).getValue();
+        final String[] textFields = context.getProperty(TEXT_FIELDS_ATTR).evaluateAttributeExpressions(flowFile)
+                .getValue().split(",");
+        final int batchSize = context.getProperty(RECORD_BATCH_SIZE_ATTR).asInteger();
+
+        final Map<String, String> originalAttributes = flowFile.getAttributes();
+        final Map<String, String> attributes = new HashMap<String, String>();
+        final Map<String, Long> timing = new LinkedHashMap<String, Long>();
+        final AtomicInteger skipped = new AtomicInteger();
+        FlowFile output;
+        try {
+            output = session.write(flowFile, new StreamCallback() {
+                @Override
+                public void process(final InputStream in, final OutputStream out) throws IOException {
+                    try (final RecordReader reader = readerFactory.createRecordReader(originalAttributes, in, getLogger())) {
+                        final RecordSchema schema = entitySchema(reader.getSchema(), entityTypes);
+                        try (final RecordSetWriter writer = writerFactory.createWriter(getLogger(),
+                                writerFactory.getSchema(originalAttributes, schema), out)) {
+                            writer.beginRecordSet();
+                            final List<Record> batch = new ArrayList<Record>(batchSize);
+                            long start = System.nanoTime();
+                            Record record;
+                            while ((record = reader.nextRecord()) != null) {
+                                settings.accumulate(timing, StanfordCoreNLPMetrics.READ, start);
+                                batch.add(record);
+                                if (batch.size() == batchSize) {
+                                    skipped.addAndGet(annotate(settings, batch, entityTypes, textFields, schema, writer, timing));
+                                    batch.clear();
+                                }
+                                start = System.nanoTime();
+                            }
+                            skipped.addAndGet(annotate(settings, batch, entityTypes, textFields, schema, writer, timing));
+
+                            final WriteResult result = writer.finishRecordSet();
+                            attributes.put(RECORD_COUNT_ATTR, String.valueOf(result.getRecordCount()));
+                            attributes.put(CoreAttributes.MIME_TYPE.key(), writer.getMimeType());
+                            attributes.putAll(result.getAttributes());
+                        }
+                    } catch (final SchemaNotFoundException | MalformedRecordException e) {
+                        throw new ProcessException("Could not read the records", e);
+                    }
+                }
+            });
+        } catch (final ProcessException e) {
+            getLogger().error("Failed to analyze records, check nifi-app.log for more details. Error: " + e.getMessage());
+            transferFailure(session, flowFile, e);
+            reportMetrics(context, session, settings);
+            return;
+        }
+
+        if (settings.timingAttribute) {
+            attributes.put(TIMING_ATTR, timingToJson(timing));
+        }
+        output = session.putAllAttributes(output, attributes);
+        session.transfer(output, SUCCESS_RELATIONSHIP);
+
+        session.adjustCounter("Records Analyzed", Long.parseLong(attributes.get(RECORD_COUNT_ATTR)), false);
+        if (skipped.get() > 0) {
+            session.adjustCounter("Pre-Filter Skipped", skipped.get(), false);
+        }
+        reportCacheCounters(session, settings);
+        reportMetrics(context, session, settings);
+    }
+
+    /**
+     * Analyzes the text fields of a batch of records together and writes the
+     * records with their entities, in order. Returns the number of records the
+     * pre-filter skipped.
+     */
+    private int annotate(final Settings settings, final List<Record> batch, final String entityTypes,
+            final String[] textFields, final RecordSchema schema, final RecordSetWriter writer,
+            final Map<String, Long> timing) throws IOException {
+        final StanfordCoreNLPService service = settings.service;
+        final List<Map<String, List<String>>> entities = new ArrayList<Map<String, List<String>>>(batch.size());
+        final List<String> texts = new ArrayList<String>(batch.size());
+        final List<Integer> analyzed = new ArrayList<Integer>(batch.size());
+        for (final Record record : batch) {
+            final String text = getText(record, textFields);
+            if (text.isEmpty() || service.skips(text)) {
+                entities.add(StanfordCoreNLPService.emptyEntities(entityTypes));
+            } else {
+                analyzed.add(entities.size());
+                entities.add(null);
+                texts.add(text);
+            }
+        }
+
+        long start = System.nanoTime();
+        if (!texts.isEmpty()) {
+            final List<CompletableFuture<Map<String, List<String>>>> futures = service.extractEntities(texts,
+                    Collections.nCopies(texts.size(), entityTypes));
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    entities.set(analyzed.get(i), futures.get(i).join());
+                } catch (final CompletionException e) {
+                    throw new ProcessException("Failed to analyze record text", e.getCause());
+                }
+            }
+            start = settings.accumulate(timing, StanfordCoreNLPMetrics.ANALYZE, start);
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            writer.write(withEntities(batch.get(i), schema, entities.get(i)));
+        }
+        settings.accumulate(timing, StanfordCoreNLPMetrics.WRITE, start);
+        return batch.size() - texts.size();
+    }
+
+    /**
+     * Joins the values of the text fields the record has, with spaces.
+     */
+    private static String getText(final Record record, final String[] textFields) {
+        final StringBuilder text = new StringBuilder();
+        for (final String field : textFields) {
+            final String value = record.getAsString(field.trim());
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(value);
+        }
+        return text.toString();
+    }
+
+    /**
+     * The schema of the records read with an array of strings field per entity
+     * type, replacing any field of the same name.
+     */
+    static RecordSchema entitySchema(final RecordSchema schema, final String entityTypes) {
+        final List<RecordField> fields = new ArrayList<RecordField>();
+        final TreeSet<String> types = new TreeSet<String>(StanfordCoreNLPService.emptyEntities(entityTypes).keySet());
+        for (final RecordField field : schema.getFields()) {
+            if (!types.contains(field.getFieldName())) {
+                fields.add(field);
+            }
+        }
+        for (final String type : types) {
+            fields.add(new RecordField(type, ENTITIES_TYPE));
+        }
+        return new SimpleRecordSchema(fields);
+    }
+
+    private static Record withEntities(final Record record, final RecordSchema schema,
+            final Map<String, List<String>> entities) {
+        final Map<String, Object> values = new HashMap<String, Object>(record.toMap());
+        for (final Map.Entry<String, List<String>> entry : entities.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return new MapRecord(schema, values);
+    }
+}
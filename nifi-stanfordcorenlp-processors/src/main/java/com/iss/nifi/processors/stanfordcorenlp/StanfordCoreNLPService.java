@@ -26,83 +26,697 @@
 package com.iss.nifi.processors.stanfordcorenlp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.pipeline.AnnotationPipeline;
-import edu.stanford.nlp.pipeline.CoreDocument;
-import edu.stanford.nlp.pipeline.CoreEntityMention;
 import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.util.CoreMap;
 import edu.stanford.nlp.util.PropertiesUtils;
 
+/**
+ * Extracts entities with an annotation pipeline. One service, and the pipeline
+ * it wraps, is shared by all the threads of a processor: the annotators of a
+ * local {@link StanfordCoreNLP} keep no state between documents, and the
+ * remote client is thread safe. A local pipeline annotates at most
+ * {@link Builder#maxConcurrency(int)} documents at once, however many threads
+ * call in, so adding threads never oversubscribes the cores. A service can
+ * also route between a local pipeline and a remote one, see
+ * {@link Builder#remote(StanfordCoreNLPClientSimple, int, int)}.
+ */
 public class StanfordCoreNLPService {
   private final static String DEFAULT_ANNOTATORS = "tokenize,ssplit,pos,lemma,ner";
   private final static int DEFAULT_THREADS = 1;
 
+  // annotators that decide which entity mentions are found, everything else is never read
+  private final static Set<String> ENTITY_ANNOTATORS = new HashSet<String>(Arrays.asList("tokenize", "cleanxml",
+      "ssplit", "truecase", "pos", "lemma", "ner", "regexner", "tokensregex", "entitymentions"));
+  private final static Set<String> TIME_TAGS = new HashSet<String>(Arrays.asList("DATE", "TIME", "DURATION", "SET"));
+  private final static Set<String> NUMERIC_TAGS = new HashSet<String>(Arrays.asList("MONEY", "NUMBER", "ORDINAL",
+      "PERCENT", "DATE", "TIME", "DURATION", "SET"));
+  private final static Set<String> FINE_GRAINED_TAGS = new HashSet<String>(Arrays.asList("CITY", "COUNTRY",
+      "STATE_OR_PROVINCE", "NATIONALITY", "RELIGION", "TITLE", "IDEOLOGY", "CRIMINAL_CHARGE", "CAUSE_OF_DEATH",
+      "EMAIL", "URL", "HANDLE"));
+  private final static int MAX_MATCHERS = 256;
+  private final static Map<String, EntityTypeMatcher> MATCHERS = new ConcurrentHashMap<String, EntityTypeMatcher>();
+
   private final AnnotationPipeline pipeline;
+  private final int threads;
+  private final EntityCache cache;
+  private final int maxChunkLength;
+  private final PreFilter preFilter;
+  private final StanfordCoreNLPMetrics metrics;
+  private final Semaphore permits;
+  private final int packLength;
+  private final StanfordCoreNLPClientSimple remote;
+  private final int localMaxLength;
+  private final int localMaxQueue;
+  private final AtomicInteger localQueue = new AtomicInteger();
+  private final AtomicLong routedLocal = new AtomicLong();
+  private final AtomicLong routedRemote = new AtomicLong();
+  private final Runnable onShutdown;
 
   public StanfordCoreNLPService(final AnnotationPipeline pipeline) {
-    this.pipeline = pipeline;
+    this(pipeline, DEFAULT_THREADS);
+  }
+
+  public StanfordCoreNLPService(final AnnotationPipeline pipeline, final int threads) {
+    this(new Builder(pipeline).threads(threads));
+  }
+
+  private StanfordCoreNLPService(final Builder builder) {
+    this.pipeline = builder.pipeline;
+    this.threads = Math.max(builder.threads, 1);
+    this.cache = builder.cache;
+    this.maxChunkLength = builder.maxChunkLength;
+    this.metrics = builder.metrics;
+    this.packLength = builder.packLength;
+    this.remote = builder.pipeline instanceof StanfordCoreNLPClientSimple ? null : builder.remote;
+    this.localMaxLength = builder.localMaxLength;
+    this.localMaxQueue = builder.localMaxQueue;
+    this.permits = builder.maxConcurrency > 0 ? new Semaphore(Math.max(builder.maxConcurrency, this.threads), true) : null;
+    this.preFilter = builder.preFilter == null || builder.preFilter.isEmpty() ? null : builder.preFilter;
+    this.onShutdown = builder.onShutdown;
+  }
+
+  /**
+   * Configures a service around a pipeline, with the optional features off
+   * unless they are asked for.
+   */
+  public static class Builder {
+    private final AnnotationPipeline pipeline;
+    private int threads = DEFAULT_THREADS;
+    private EntityCache cache;
+    private int maxChunkLength;
+    private PreFilter preFilter;
+    private StanfordCoreNLPMetrics metrics;
+    private int maxConcurrency;
+    private int packLength;
+    private StanfordCoreNLPClientSimple remote;
+    private int localMaxLength;
+    private int localMaxQueue;
+    private Runnable onShutdown;
+
+    public Builder(final AnnotationPipeline pipeline) {
+      this.pipeline = pipeline;
+    }
+
+    /**
+     * Number of documents a local pipeline annotates at once.
+     */
+    public Builder threads(final int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * Where extracted entities are kept for texts seen again, null to annotate every text.
+     */
+    public Builder cache(final EntityCache cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /**
+     * Longest text annotated as a single document. Longer texts are split
+     * into chunks at paragraph and sentence boundaries, which are annotated in
+     * parallel. 0 never splits.
+     */
+    public Builder maxChunkLength(final int maxChunkLength) {
+      this.maxChunkLength = maxChunkLength;
+      return this;
+    }
+
+    /**
+     * Checks that let texts without candidate entities skip the pipeline, null to analyze every text.
+     */
+    public Builder preFilter(final PreFilter preFilter) {
+      this.preFilter = preFilter;
+      return this;
+    }
+
+    /**
+     * Where to record how long annotating and extracting take, null to not keep track.
+     */
+    public Builder metrics(final StanfordCoreNLPMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * Most documents a local pipeline annotates at once across all calling
+     * threads, at least the number of threads. Callers wait for their turn
+     * beyond that. 0 leaves it unbounded.
+     */
+    public Builder maxConcurrency(final int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    /**
+     * Longest document a remote pipeline packs short texts into, so they are
+     * annotated in a single round trip, see {@link DocumentPacker}. The props
+     * must end sentences at blank lines, see {@link #preparePacking(Properties)}.
+     * 0 sends every text on its own.
+     */
+    public Builder packLength(final int packLength) {
+      this.packLength = packLength;
+      return this;
+    }
+
+    /**
+     * A remote pipeline to route to alongside the local one: chunks longer
+     * than localMaxLength characters are sent to it, and so are shorter ones
+     * while localMaxQueue documents are already waiting on or being annotated
+     * by the local pipeline (0 never overflows). Ignored when the pipeline is
+     * remote itself.
+     */
+    public Builder remote(final StanfordCoreNLPClientSimple remote, final int localMaxLength, final int localMaxQueue) {
+      this.remote = remote;
+      this.localMaxLength = localMaxLength;
+      this.localMaxQueue = localMaxQueue;
+      return this;
+    }
+
+    /**
+     * Run once the service is shut down, such as to hand a pipeline borrowed
+     * from a shared pool back.
+     */
+    public Builder onShutdown(final Runnable onShutdown) {
+      this.onShutdown = onShutdown;
+      return this;
+    }
+
+    public StanfordCoreNLPService build() {
+      return new StanfordCoreNLPService(this);
+    }
   }
 
   public Map<String, List<String>> extractEntities(final String text, final String entityTypes) throws RuntimeException {
-    final String[] entityTypeList = entityTypes.split((","));
-    boolean extractLocations = false;
-    final List<String> locationNerTagList = new ArrayList<String>();
-    locationNerTagList.add("LOCATION");
-    locationNerTagList.add("CITY");
-    locationNerTagList.add("COUNTRY");
-    locationNerTagList.add("STATE_OR_PROVINCE");
-    final List<String> nerTagList = new ArrayList<String>();
-
-    final Map<String, List<String>> output = new HashMap<String, List<String>>();
-
-    for (final String tag : entityTypeList) {
-      output.put(tag, new ArrayList<String>());
-      if (tag.equals("location")) {
-        extractLocations = true;
+    if (skips(text)) {
+      return emptyEntities(entityTypes);
+    }
+    try {
+      return extractEntities(Collections.singletonList(text), Collections.singletonList(entityTypes)).get(0).join();
+    } catch (final CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Extracts the entities of a batch of texts, each with its own entity types.
+   * Texts found in the cache are not annotated again, nor are copies of a
+   * text earlier in the batch, which count as cache hits. The rest are annotated
+   * together like {@link #annotate(List)} does, split into chunks first if
+   * they are too long. A remote pipeline completes the returned futures as its
+   * responses arrive, a local one before returning. A failure only fails the
+   * futures of the texts it affected. The texts are not pre-filtered, callers
+   * check {@link #skips(String)} first to tell skipped texts apart.
+   */
+  public List<CompletableFuture<Map<String, List<String>>>> extractEntities(final List<String> texts,
+      final List<String> entityTypes) {
+    final List<CompletableFuture<Map<String, List<String>>>> results =
+        new ArrayList<CompletableFuture<Map<String, List<String>>>>(texts.size());
+    // keyed by the cache key when there is a cache, otherwise by the entity types and the text itself
+    final Map<Object, CompletableFuture<Map<String, List<String>>>> pending =
+        new HashMap<Object, CompletableFuture<Map<String, List<String>>>>();
+    final List<String> missTexts = new ArrayList<String>();
+    final List<String> missTypes = new ArrayList<String>();
+    final List<String> missKeys = new ArrayList<String>();
+    final List<CompletableFuture<Map<String, List<String>>>> missResults =
+        new ArrayList<CompletableFuture<Map<String, List<String>>>>();
+
+    for (int i = 0; i < texts.size(); i++) {
+      // hashing every text is only worth it when the digest is kept in the cache
+      final String key = cache == null ? null : EntityCache.key(texts.get(i), entityTypes.get(i));
+      final Object batchKey = key != null ? key : Arrays.asList(entityTypes.get(i), texts.get(i));
+      // duplicates within the batch wait on the first copy, with or without a cache
+      final CompletableFuture<Map<String, List<String>>> inBatch = pending.get(batchKey);
+      if (inBatch != null) {
+        if (cache != null) {
+          cache.recordHit();
+        }
+        results.add(inBatch);
+        continue;
+      }
+      if (cache != null) {
+        final Map<String, List<String>> cached = cache.get(key);
+        if (cached != null) {
+          results.add(CompletableFuture.completedFuture(cached));
+          continue;
+        }
+      }
+
+      final CompletableFuture<Map<String, List<String>>> result = new CompletableFuture<Map<String, List<String>>>();
+      results.add(result);
+      pending.put(batchKey, result);
+      missTexts.add(texts.get(i));
+      missTypes.add(entityTypes.get(i));
+      missKeys.add(key);
+      missResults.add(result);
+    }
+
+    if (missTexts.isEmpty()) {
+      return results;
+    }
+
+    final List<List<String>> missChunks = new ArrayList<List<String>>(missTexts.size());
+    final List<String> allChunks = new ArrayList<String>();
+    for (final String text : missTexts) {
+      final List<String> chunks = TextChunker.split(text, maxChunkLength);
+      missChunks.add(chunks);
+      allChunks.addAll(chunks);
+    }
+
+    if (isAsync() || remote != null) {
+      // chunks go out as separate requests, spread over the backends, or packed together
+      final List<CompletableFuture<Annotation>> chunkAnnotations = annotateRouted(allChunks);
+      int offset = 0;
+      for (int i = 0; i < missTexts.size(); i++) {
+        final String types = missTypes.get(i);
+        final String key = missKeys.get(i);
+        final CompletableFuture<Map<String, List<String>>> result = missResults.get(i);
+        final int chunks = missChunks.get(i).size();
+        final List<CompletableFuture<Annotation>> parts = chunkAnnotations.subList(offset, offset + chunks);
+        offset += chunks;
+        CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).whenComplete((v, t) -> {
+          if (t != null) {
+            result.completeExceptionally(t);
+            return;
+          }
+          final List<Annotation> annotations = new ArrayList<Annotation>(parts.size());
+          for (final CompletableFuture<Annotation> part : parts) {
+            annotations.add(part.join());
+          }
+          complete(result, annotations, types, key);
+        });
+      }
+      return results;
+    }
+
+    final List<Annotation> annotations;
+    final long start = System.nanoTime();
+    try {
+      annotations = annotate(allChunks);
+      record(StanfordCoreNLPMetrics.ANNOTATE, start);
+    } catch (final RuntimeException e) {
+      for (final CompletableFuture<Map<String, List<String>>> result : missResults) {
+        result.completeExceptionally(e);
+      }
+      return results;
+    }
+    int offset = 0;
+    for (int i = 0; i < missTexts.size(); i++) {
+      final int chunks = missChunks.get(i).size();
+      complete(missResults.get(i), annotations.subList(offset, offset + chunks), missTypes.get(i), missKeys.get(i));
+      offset += chunks;
+    }
+    return results;
+  }
+
+  /**
+   * Extracts the entities of each chunk of a text and appends them in chunk
+   * order, so mentions keep the order they have in the text.
+   */
+  private void complete(final CompletableFuture<Map<String, List<String>>> result, final List<Annotation> annotations,
+      final String entityTypes, final String key) {
+    final long start = System.nanoTime();
+    try {
+      Map<String, List<String>> entities = null;
+      for (final Annotation annotation : annotations) {
+        final Map<String, List<String>> chunkEntities = extractEntities(annotation, entityTypes);
+        if (entities == null) {
+          entities = chunkEntities;
+          continue;
+        }
+        for (final Map.Entry<String, List<String>> entry : chunkEntities.entrySet()) {
+          entities.get(entry.getKey()).addAll(entry.getValue());
+        }
+      }
+      record(StanfordCoreNLPMetrics.EXTRACT, start);
+      result.complete(key == null ? entities : cache.put(key, entities));
+    } catch (final RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+  }
+
+  private void record(final String stage, final long start) {
+    if (metrics != null) {
+      metrics.record(stage, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * The current adaptive limit on requests in flight to the server, summed
+   * over its hosts, or -1 for a local pipeline or a fixed limit.
+   */
+  public int concurrencyLimit() {
+    final StanfordCoreNLPClientSimple client = client();
+    return client != null ? client.getConcurrencyLimit() : -1;
+  }
+
+  /**
+   * Whether texts are routed between a local and a remote pipeline.
+   */
+  public boolean isHybrid() {
+    return remote != null;
+  }
+
+  /**
+   * The number of chunks annotated locally since the service started, when routing.
+   */
+  public long getRoutedLocal() {
+    return routedLocal.get();
+  }
+
+  /**
+   * The number of chunks sent to the remote pipeline since the service started, when routing.
+   */
+  public long getRoutedRemote() {
+    return routedRemote.get();
+  }
+
+  /**
+   * The time each annotator of a local pipeline took so far, as reported by
+   * the pipeline, or null for a remote one, whose annotators run on the server.
+   */
+  public String timingInformation() {
+    return isAsync() ? null : pipeline.timingInformation();
+  }
+
+  /**
+   * Whether the pre-filter found no candidate entities in the text, so
+   * analyzing it would only produce {@link #emptyEntities(String)}.
+   */
+  public boolean skips(final String text) {
+    return preFilter != null && preFilter.skips(text);
+  }
+
+  /**
+   * The result of a text without entities, an empty list for each type.
+   */
+  public static Map<String, List<String>> emptyEntities(final String entityTypes) {
+    return matcher(entityTypes).newOutput();
+  }
+
+  /**
+   * The number of documents the pipeline annotates at once.
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * The cache of extracted entities, or null if caching is off.
+   */
+  public EntityCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Annotates a single text with the pipeline.
+   */
+  public Annotation annotate(final String text) {
+    final Annotation annotation = new Annotation(text);
+    if (isAsync()) {
+      pipeline.annotate(annotation);
+    } else {
+      annotateLocally(Collections.singletonList(annotation));
+    }
+    return annotation;
+  }
+
+  /**
+   * Annotates a batch of texts together, letting the pipeline spread the
+   * documents across its configured number of threads. The returned
+   * annotations are in the same order as the texts.
+   */
+  public List<Annotation> annotate(final List<String> texts) {
+    final List<Annotation> annotations = new ArrayList<Annotation>(texts.size());
+    for (final String text : texts) {
+      annotations.add(new Annotation(text));
+    }
+    if (isAsync()) {
+      final List<CompletableFuture<Annotation>> futures = new ArrayList<CompletableFuture<Annotation>>();
+      for (final Annotation annotation : annotations) {
+        futures.add(((StanfordCoreNLPClientSimple) pipeline).annotateAsync(annotation));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    } else if (!annotations.isEmpty()) {
+      annotateLocally(annotations);
+    }
+    return annotations;
+  }
+
+  /**
+   * Annotates on the local pipeline, holding a permit for each document
+   * annotated at once so concurrent callers share the bound.
+   */
+  private void annotateLocally(final List<Annotation> annotations) {
+    final int parallel = Math.min(threads, annotations.size());
+    localQueue.addAndGet(annotations.size());
+    if (permits != null) {
+      permits.acquireUninterruptibly(parallel);
+    }
+    try {
+      if (parallel == 1) {
+        for (final Annotation annotation : annotations) {
+          pipeline.annotate(annotation);
+        }
       } else {
-        nerTagList.add(tag.toUpperCase());
+        pipeline.annotate(annotations, parallel);
+      }
+    } finally {
+      if (permits != null) {
+        permits.release(parallel);
       }
+      localQueue.addAndGet(-annotations.size());
     }
+  }
+
+  /**
+   * Whether the pipeline annotates remotely and can have many documents in
+   * flight without tying up a thread for each.
+   */
+  public boolean isAsync() {
+    return pipeline instanceof StanfordCoreNLPClientSimple;
+  }
 
+  /**
+   * Starts annotating a single text. For a remote pipeline the request is
+   * sent without waiting on the response, a local pipeline annotates the
+   * text before returning a completed future.
+   */
+  public CompletableFuture<Annotation> annotateAsync(final String text) {
     final Annotation annotation = new Annotation(text);
-    pipeline.annotate(annotation);
+    if (isAsync()) {
+      return ((StanfordCoreNLPClientSimple) pipeline).annotateAsync(annotation);
+    }
+    annotateLocally(Collections.singletonList(annotation));
+    return CompletableFuture.completedFuture(annotation);
+  }
 
-    if (annotation.containsKey(CoreAnnotations.ExceptionAnnotation.class)) {
-      final Throwable t = annotation.get(CoreAnnotations.ExceptionAnnotation.class);
-      throw new RuntimeException(t);
+  /**
+   * The client remote texts are sent through, or null if there is none.
+   */
+  private StanfordCoreNLPClientSimple client() {
+    return isAsync() ? (StanfordCoreNLPClientSimple) pipeline : remote;
+  }
+
+  /**
+   * Starts annotating each of the texts, on the remote pipeline, or when
+   * routing, on whichever pipeline the text is routed to. Remote texts are
+   * sent first, then the local ones are annotated together before returning.
+   */
+  private List<CompletableFuture<Annotation>> annotateRouted(final List<String> texts) {
+    final List<CompletableFuture<Annotation>> annotations = new ArrayList<CompletableFuture<Annotation>>(texts.size());
+    final List<Integer> remoteIndexes = new ArrayList<Integer>();
+    final List<String> remoteTexts = new ArrayList<String>();
+    final List<Integer> localIndexes = new ArrayList<Integer>();
+    final int queued = localQueue.get();
+    for (int i = 0; i < texts.size(); i++) {
+      annotations.add(null);
+      final String text = texts.get(i);
+      if (remote == null || text.length() > localMaxLength
+          || (localMaxQueue > 0 && queued + localIndexes.size() >= localMaxQueue)) {
+        remoteIndexes.add(i);
+        remoteTexts.add(text);
+      } else {
+        localIndexes.add(i);
+      }
+    }
+
+    final List<CompletableFuture<Annotation>> sent = sendAsync(client(), remoteTexts);
+    for (int i = 0; i < sent.size(); i++) {
+      annotations.set(remoteIndexes.get(i), sent.get(i));
+    }
+    if (remote == null) {
+      return annotations;
     }
+    routedRemote.addAndGet(remoteIndexes.size());
+    routedLocal.addAndGet(localIndexes.size());
 
-    final CoreDocument document = new CoreDocument(annotation);
+    final List<Annotation> local = new ArrayList<Annotation>(localIndexes.size());
+    for (final int index : localIndexes) {
+      local.add(new Annotation(texts.get(index)));
+    }
+    RuntimeException failure = null;
+    if (!local.isEmpty()) {
+      final long start = System.nanoTime();
+      try {
+        annotateLocally(local);
+        record(StanfordCoreNLPMetrics.ANNOTATE, start);
+      } catch (final RuntimeException e) {
+        failure = e;
+      }
+    }
+    for (int i = 0; i < local.size(); i++) {
+      final CompletableFuture<Annotation> annotation = new CompletableFuture<Annotation>();
+      if (failure != null) {
+        annotation.completeExceptionally(failure);
+      } else {
+        annotation.complete(local.get(i));
+      }
+      annotations.set(localIndexes.get(i), annotation);
+    }
+    return annotations;
+  }
 
-    List<CoreEntityMention> mentions = document.entityMentions();
-    if (document.entityMentions() == null) {
-      mentions = new ArrayList<CoreEntityMention>();
+  /**
+   * Sends each of the texts to the remote pipeline without waiting on the
+   * responses. Texts shorter than the pack length share requests, and their
+   * annotations only hold their own entity mentions.
+   */
+  private List<CompletableFuture<Annotation>> sendAsync(final StanfordCoreNLPClientSimple client,
+      final List<String> texts) {
+    final List<CompletableFuture<Annotation>> annotations = new ArrayList<CompletableFuture<Annotation>>(texts.size());
+    if (packLength <= 0 || texts.size() < 2) {
+      for (final String text : texts) {
+        annotations.add(client.annotateAsync(new Annotation(text)));
+      }
+      return annotations;
     }
 
-    for (final CoreEntityMention entityMention : mentions) {
-      final String eType = entityMention.entityType();
-      if (extractLocations && locationNerTagList.contains(eType)) {
-        final List<String> locs = output.get("location");
-        locs.add(entityMention.text());
-        output.put("location", locs);
+    for (int i = 0; i < texts.size(); i++) {
+      annotations.add(null);
+    }
+    for (final List<Integer> pack : DocumentPacker.pack(texts, packLength)) {
+      if (pack.size() == 1) {
+        annotations.set(pack.get(0), client.annotateAsync(new Annotation(texts.get(pack.get(0)))));
         continue;
       }
-      if (nerTagList.contains(eType)) {
-        final List<String> e = output.get(eType.toLowerCase());
-        e.add(entityMention.text());
-        output.put(eType.toLowerCase(), e);
+      final List<String> packTexts = new ArrayList<String>(pack.size());
+      final List<CompletableFuture<Annotation>> packAnnotations = new ArrayList<CompletableFuture<Annotation>>(pack.size());
+      for (final int index : pack) {
+        final CompletableFuture<Annotation> annotation = new CompletableFuture<Annotation>();
+        packTexts.add(texts.get(index));
+        packAnnotations.add(annotation);
+        annotations.set(index, annotation);
+      }
+      client.annotateAsync(new Annotation(DocumentPacker.join(packTexts))).whenComplete((packed, t) -> {
+        if (t != null) {
+          for (final CompletableFuture<Annotation> annotation : packAnnotations) {
+            annotation.completeExceptionally(t);
+          }
+          return;
+        }
+        final List<Annotation> unpacked = DocumentPacker.unpack(packed, packTexts);
+        for (int i = 0; i < unpacked.size(); i++) {
+          packAnnotations.get(i).complete(unpacked.get(i));
+        }
+      });
+    }
+    return annotations;
+  }
+
+  /**
+   * Lists the text of each entity mention whose tag was asked for, walking
+   * the mentions of the annotation directly.
+   */
+  public Map<String, List<String>> extractEntities(final Annotation annotation, final String entityTypes) throws RuntimeException {
+    final EntityTypeMatcher matcher = matcher(entityTypes);
+    final Map<String, List<String>> output = matcher.newOutput();
+
+    if (annotation.containsKey(CoreAnnotations.ExceptionAnnotation.class)) {
+      final Throwable t = annotation.get(CoreAnnotations.ExceptionAnnotation.class);
+      throw new RuntimeException(t);
+    }
+
+    final List<CoreMap> mentions = annotation.get(CoreAnnotations.MentionsAnnotation.class);
+    if (mentions != null) {
+      addMentions(mentions, matcher, output);
+    } else if (annotation.get(CoreAnnotations.SentencesAnnotation.class) != null) {
+      for (final CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
+        final List<CoreMap> sentenceMentions = sentence.get(CoreAnnotations.MentionsAnnotation.class);
+        if (sentenceMentions != null) {
+          addMentions(sentenceMentions, matcher, output);
+        }
       }
     }
 
     return output;
   }
 
+  private static void addMentions(final List<CoreMap> mentions, final EntityTypeMatcher matcher,
+      final Map<String, List<String>> output) {
+    for (final CoreMap mention : mentions) {
+      String tag = mention.get(CoreAnnotations.EntityTypeAnnotation.class);
+      if (tag == null) {
+        tag = mention.get(CoreAnnotations.NamedEntityTagAnnotation.class);
+      }
+      final String type = matcher.typeOf(tag);
+      if (type != null) {
+        output.get(type).add(mention.get(CoreAnnotations.TextAnnotation.class));
+      }
+    }
+  }
+
+  /**
+   * Compiles each distinct entity types value once.
+   */
+  private static EntityTypeMatcher matcher(final String entityTypes) {
+    EntityTypeMatcher matcher = MATCHERS.get(entityTypes);
+    if (matcher == null) {
+      if (MATCHERS.size() >= MAX_MATCHERS) {
+        MATCHERS.clear();
+      }
+      matcher = new EntityTypeMatcher(entityTypes);
+      MATCHERS.put(entityTypes, matcher);
+    }
+    return matcher;
+  }
+
+  /**
+   * Releases background resources held by the pipeline, such as the health
+   * checks of a remote client.
+   */
+  public void shutdown() {
+    final StanfordCoreNLPClientSimple client = client();
+    if (client != null) {
+      client.shutdown();
+    }
+    if (onShutdown != null) {
+      onShutdown.run();
+    }
+  }
+
   public static Properties sanitizeProps(Properties props) {
     if (props == null) {
       props = new Properties();
@@ -116,6 +730,68 @@ public class StanfordCoreNLPService {
     return props;
   }
 
+  /**
+   * Narrows the props to what extracting the given entity types needs: the
+   * annotators that do not affect entity mentions are dropped, and SUTime,
+   * the numeric classifiers and fine grained NER are turned off when none of
+   * their tags were asked for. Their models are then never loaded. NER
+   * options set explicitly in the props are left alone.
+   */
+  public static Properties pruneProps(Properties props, final String entityTypes) {
+    props = sanitizeProps(props);
+
+    final Set<String> tags = new HashSet<String>();
+    for (final String tag : entityTypes.split(",")) {
+      if (tag.equals("location")) {
+        tags.addAll(EntityTypeMatcher.LOCATION_TAGS);
+      } else {
+        tags.add(tag.toUpperCase());
+      }
+    }
+
+    final List<String> annotators = new ArrayList<String>();
+    for (final String annotator : props.getProperty("annotators").split(",")) {
+      if (ENTITY_ANNOTATORS.contains(annotator.trim())) {
+        annotators.add(annotator.trim());
+      }
+    }
+    props.setProperty("annotators", String.join(",", annotators));
+
+    if (Collections.disjoint(tags, TIME_TAGS)) {
+      setIfAbsent(props, "ner.useSUTime", "false");
+    }
+    if (Collections.disjoint(tags, NUMERIC_TAGS)) {
+      setIfAbsent(props, "ner.applyNumericClassifiers", "false");
+    }
+    if (Collections.disjoint(tags, FINE_GRAINED_TAGS)) {
+      setIfAbsent(props, "ner.applyFineGrained", "false");
+    }
+
+    return props;
+  }
+
+  private static void setIfAbsent(final Properties props, final String key, final String value) {
+    if (props.getProperty(key) == null) {
+      props.setProperty(key, value);
+    }
+  }
+
+  /**
+   * Makes the props end sentences at the blank lines between packed texts,
+   * unless they were set otherwise.
+   *
+   * @return whether texts can be packed under the props without entities crossing between them
+   */
+  public static boolean preparePacking(final Properties props) {
+    setIfAbsent(props, "ssplit.newlineIsSentenceBreak", "two");
+    return !"never".equals(props.getProperty("ssplit.newlineIsSentenceBreak"))
+        && !Boolean.parseBoolean(props.getProperty("ssplit.isOneSentence"));
+  }
+
+  public static int getThreads(final Properties props) {
+    return (int) PropertiesUtils.getDouble(sanitizeProps(props), "threads", DEFAULT_THREADS);
+  }
+
   public static AnnotationPipeline createPipeline(final Properties rawProps) {
     final Properties props = sanitizeProps(rawProps);
     return new StanfordCoreNLP(props);
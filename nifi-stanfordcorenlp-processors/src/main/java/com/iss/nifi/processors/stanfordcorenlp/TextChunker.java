@@ -0,0 +1,178 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.swing.text.Segment;
+
+/**
+ * Splits long texts into chunks of bounded length that can be annotated
+ * independently. Chunks end at a paragraph break where one is close enough to
+ * the limit, otherwise at the last sentence boundary, and only split inside a
+ * sentence that is longer than the limit itself. Chunks do not overlap, so no
+ * mention is found twice.
+ */
+public final class TextChunker {
+
+    private TextChunker() {
+    }
+
+    /**
+     * @param maxLength longest chunk in characters, 0 or less to never split
+     */
+    public static List<String> split(final String text, final int maxLength) {
+        if (maxLength <= 0 || text.length() <= maxLength) {
+            return Collections.singletonList(text);
+        }
+
+        final BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ROOT);
+        sentences.setText(text);
+
+        final List<String> chunks = new ArrayList<String>();
+        int start = 0;
+        while (text.length() - start > maxLength) {
+            final int end = findBreak(text, sentences, start, start + maxLength);
+            addChunk(chunks, text.substring(start, end));
+            start = end;
+        }
+        addChunk(chunks, text.substring(start));
+
+        if (chunks.isEmpty()) {
+            return Collections.singletonList(text);
+        }
+        return chunks;
+    }
+
+    /**
+     * Reads a text too long to hold in memory chunk by chunk, cutting it like
+     * {@link TextChunker#split} does. No more than two chunks of the text are
+     * held at once, in one buffer that the break search reads in place. Only
+     * the chunk returned and the text left after it are copied.
+     */
+    public static final class ChunkReader implements Closeable {
+        private final Reader reader;
+        private final int maxLength;
+        private final char[] buffer;
+        private final BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ROOT);
+        private int length;
+        private boolean end;
+
+        /**
+         * @param maxLength longest chunk in characters, must be positive
+         */
+        public ChunkReader(final Reader reader, final int maxLength) {
+            this.reader = reader;
+            this.maxLength = maxLength;
+            this.buffer = new char[maxLength + 8192];
+        }
+
+        /**
+         * The next chunk that is not blank, or null at the end of the text.
+         */
+        public String next() throws IOException {
+            while (true) {
+                while (!end && length <= maxLength) {
+                    final int n = reader.read(buffer, length, buffer.length - length);
+                    if (n < 0) {
+                        end = true;
+                    } else {
+                        length += n;
+                    }
+                }
+                if (length == 0) {
+                    return null;
+                }
+
+                int cut = length;
+                if (cut > maxLength) {
+                    final Segment text = new Segment(buffer, 0, length);
+                    sentences.setText(text);
+                    cut = findBreak(text, sentences, 0, maxLength);
+                }
+                final String chunk = new String(buffer, 0, cut);
+                length -= cut;
+                System.arraycopy(buffer, cut, buffer, 0, length);
+                if (!chunk.trim().isEmpty()) {
+                    return chunk;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static void addChunk(final List<String> chunks, final String chunk) {
+        if (!chunk.trim().isEmpty()) {
+            chunks.add(chunk);
+        }
+    }
+
+    private static int findBreak(final CharSequence text, final BreakIterator sentences, final int start,
+            final int limit) {
+        // only a paragraph break in the second half of the chunk is close enough to the limit
+        final int paragraph = lastParagraphBreak(text, limit - 2, start + (limit - start) / 2);
+        if (paragraph >= 0) {
+            return paragraph + 2;
+        }
+
+        final int sentence = sentences.preceding(limit + 1);
+        if (sentence != BreakIterator.DONE && sentence > start) {
+            return sentence;
+        }
+
+        for (int i = limit; i > start; i--) {
+            if (Character.isWhitespace(text.charAt(i - 1))) {
+                return i;
+            }
+        }
+        return Character.isHighSurrogate(text.charAt(limit - 1)) ? limit - 1 : limit;
+    }
+
+    /**
+     * Like {@link String#lastIndexOf(String, int)} for a blank line, on any
+     * character sequence, but only looking back as far as after the floor so
+     * every chunk scans no more than its own text.
+     */
+    private static int lastParagraphBreak(final CharSequence text, final int from, final int floor) {
+        for (int i = Math.min(from, text.length() - 2); i > floor; i--) {
+            if (text.charAt(i) == '\n' && text.charAt(i + 1) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
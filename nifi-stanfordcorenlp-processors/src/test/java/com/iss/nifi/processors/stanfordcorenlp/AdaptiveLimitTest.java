@@ -0,0 +1,86 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+  private static final long RTT = TimeUnit.MILLISECONDS.toNanos(100);
+
+  @Test
+  public void testGrowsWhileRoundTripsHold() {
+    final AdaptiveLimit limit = new AdaptiveLimit(4, 1, 32);
+    for (int i = 0; i < 200; i++) {
+      limit.onSample(RTT, limit.get(), false);
+    }
+    assertTrue(limit.get() > 4);
+    assertTrue(limit.get() <= 32);
+  }
+
+  @Test
+  public void testIdleCapacityDoesNotGrow() {
+    final AdaptiveLimit limit = new AdaptiveLimit(8, 1, 32);
+    for (int i = 0; i < 200; i++) {
+      limit.onSample(RTT, 1, false);
+    }
+    assertEquals(8, limit.get());
+  }
+
+  @Test
+  public void testCutOncePerWindowOnFailures() {
+    final AdaptiveLimit limit = new AdaptiveLimit(20, 1, 32);
+    limit.onSample(RTT, 20, true);
+    assertEquals(18, limit.get());
+    // the rest of the burst does not cut it again
+    for (int i = 0; i < 10; i++) {
+      limit.onSample(RTT, 20, true);
+    }
+    assertEquals(18, limit.get());
+
+    for (int i = 0; i < 1000; i++) {
+      limit.onSample(RTT, 20, true);
+    }
+    assertEquals(1, limit.get());
+  }
+
+  @Test
+  public void testCutWhenRoundTripsRise() {
+    final AdaptiveLimit limit = new AdaptiveLimit(16, 1, 32);
+    for (int i = 0; i < 100; i++) {
+      limit.onSample(RTT, 1, false);
+    }
+    for (int i = 0; i < 50; i++) {
+      limit.onSample(RTT * 4, 16, false);
+    }
+    assertTrue(limit.get() < 16);
+  }
+}
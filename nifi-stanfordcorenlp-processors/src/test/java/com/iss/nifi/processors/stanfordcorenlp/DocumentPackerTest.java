@@ -0,0 +1,99 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+import org.junit.Test;
+
+public class DocumentPackerTest {
+
+  private static final List<String> TEXTS = Arrays.asList("Obama visited Paris.", "No entities here.",
+      "Apple hired Cook.");
+
+  @Test
+  public void testPacksUpToMaxLength() {
+    assertEquals(Arrays.asList(Arrays.asList(0, 1, 2)), DocumentPacker.pack(TEXTS, 1000));
+    assertEquals(Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2)), DocumentPacker.pack(TEXTS, 40));
+    assertEquals(Arrays.asList(Arrays.asList(0), Arrays.asList(1), Arrays.asList(2)), DocumentPacker.pack(TEXTS, 10));
+  }
+
+  @Test
+  public void testUnpackSplitsMentionsByOffset() {
+    final String joined = DocumentPacker.join(TEXTS);
+    final Annotation packed = new Annotation(joined);
+    final List<CoreMap> mentions = new ArrayList<CoreMap>();
+    for (final String name : new String[] { "Obama", "Paris", "Apple", "Cook" }) {
+      mentions.add(mention(joined, name));
+    }
+    packed.set(CoreAnnotations.MentionsAnnotation.class, mentions);
+
+    final List<Annotation> unpacked = DocumentPacker.unpack(packed, TEXTS);
+    assertEquals(3, unpacked.size());
+    assertEquals(TEXTS.get(2), unpacked.get(2).get(CoreAnnotations.TextAnnotation.class));
+    assertEquals(2, unpacked.get(0).get(CoreAnnotations.MentionsAnnotation.class).size());
+    assertTrue(unpacked.get(1).get(CoreAnnotations.MentionsAnnotation.class).isEmpty());
+
+    final List<CoreMap> third = unpacked.get(2).get(CoreAnnotations.MentionsAnnotation.class);
+    assertEquals(2, third.size());
+    final CoreMap cook = third.get(1);
+    final int begin = cook.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class);
+    final int end = cook.get(CoreAnnotations.CharacterOffsetEndAnnotation.class);
+    assertEquals("Cook", TEXTS.get(2).substring(begin, end));
+  }
+
+  @Test
+  public void testUnpackCopiesFailure() {
+    final Annotation packed = new Annotation(DocumentPacker.join(TEXTS));
+    final IOException failure = new IOException("Server returned HTTP 500");
+    packed.set(CoreAnnotations.ExceptionAnnotation.class, failure);
+
+    for (final Annotation annotation : DocumentPacker.unpack(packed, TEXTS)) {
+      assertSame(failure, annotation.get(CoreAnnotations.ExceptionAnnotation.class));
+    }
+  }
+
+  private static CoreMap mention(final String text, final String name) {
+    final CoreMap mention = new ArrayCoreMap();
+    final int begin = text.indexOf(name);
+    mention.set(CoreAnnotations.TextAnnotation.class, name);
+    mention.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class, begin);
+    mention.set(CoreAnnotations.CharacterOffsetEndAnnotation.class, begin + name.length());
+    return mention;
+  }
+}
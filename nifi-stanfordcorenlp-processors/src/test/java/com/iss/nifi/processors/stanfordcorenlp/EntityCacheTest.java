@@ -0,0 +1,103 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EntityCacheTest {
+
+  private static Map<String, List<String>> entities(final String... organizations) {
+    final Map<String, List<String>> entities = new HashMap<String, List<String>>();
+    entities.put("organization", new ArrayList<String>(Arrays.asList(organizations)));
+    return entities;
+  }
+
+  @Test
+  public void testHitAndMiss() {
+    final EntityCache cache = new EntityCache(10, 1024 * 1024, 0);
+    final String key = EntityCache.key("some text", "organization");
+
+    assertNull(cache.get(key));
+    cache.put(key, entities("Production Resource Group"));
+
+    final Map<String, List<String>> cached = cache.get(EntityCache.key("some text", "organization"));
+    assertNotNull(cached);
+    assertEquals("Production Resource Group", cached.get("organization").get(0));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testKeyIncludesEntityTypes() {
+    assertNotEquals(EntityCache.key("some text", "organization"), EntityCache.key("some text", "location"));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    final EntityCache cache = new EntityCache(2, 1024 * 1024, 0);
+    cache.put("a", entities("A"));
+    cache.put("b", entities("B"));
+    cache.get("a");
+    cache.put("c", entities("C"));
+
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void testStaysWithinMaxBytes() {
+    final EntityCache cache = new EntityCache(1000, 2048, 0);
+    for (int i = 0; i < 100; i++) {
+      cache.put("key" + i, entities("Organization " + i));
+    }
+    assertTrue(cache.getBytes() <= 2048);
+    assertNotNull(cache.get("key99"));
+  }
+
+  @Test
+  public void testExpires() throws InterruptedException {
+    final EntityCache cache = new EntityCache(10, 1024 * 1024, 1);
+    cache.put("a", entities("A"));
+    Thread.sleep(5);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EntityJsonWriterTest {
+
+  private static Map<String, List<String>> entities() {
+    final Map<String, List<String>> entities = new LinkedHashMap<String, List<String>>();
+    entities.put("organization", Arrays.asList("Production Resource Group"));
+    entities.put("location", new ArrayList<String>());
+    return entities;
+  }
+
+  private static String merge(final String json) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EntityJsonWriter.merge(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), out, entities());
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testMergeKeepsDocument() throws IOException {
+    assertEquals(
+        "{\"id\":12345678901234567890,\"score\":1.50,\"tags\":[\"a\",true,null],\"meta\":{\"n\":1},"
+            + "\"organization\":[\"Production Resource Group\"],\"location\":[]}",
+        merge("{\"id\":12345678901234567890,\"score\":1.50,\"tags\":[\"a\",true,null],\"meta\":{\"n\":1}}"));
+  }
+
+  @Test
+  public void testMergeReplacesEntityFieldsInPlace() throws IOException {
+    assertEquals("{\"organization\":[\"Production Resource Group\"],\"title\":\"t\",\"location\":[]}",
+        merge("{\"organization\":\"old\",\"title\":\"t\"}"));
+  }
+
+  @Test(expected = EntityJsonWriter.NotAnObjectException.class)
+  public void testMergeRejectsPlainText() throws IOException {
+    merge("ALBUQUERQUE, N.M. — A worldwide film production company");
+  }
+
+  @Test
+  public void testWrite() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EntityJsonWriter.write(out, entities());
+    assertEquals("{\"organization\":[\"Production Resource Group\"],\"location\":[]}",
+        new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+}
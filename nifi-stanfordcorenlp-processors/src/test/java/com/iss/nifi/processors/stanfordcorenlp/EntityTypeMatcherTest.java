@@ -0,0 +1,64 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EntityTypeMatcherTest {
+
+  @Test
+  public void testTypeOf() {
+    final EntityTypeMatcher matcher = new EntityTypeMatcher("location,organization");
+    assertEquals("organization", matcher.typeOf("ORGANIZATION"));
+    assertEquals("location", matcher.typeOf("LOCATION"));
+    assertEquals("location", matcher.typeOf("CITY"));
+    assertEquals("location", matcher.typeOf("STATE_OR_PROVINCE"));
+    assertNull(matcher.typeOf("PERSON"));
+    assertNull(matcher.typeOf(null));
+  }
+
+  @Test
+  public void testLocationTakesPrecedence() {
+    final EntityTypeMatcher matcher = new EntityTypeMatcher("city,location");
+    assertEquals("location", matcher.typeOf("CITY"));
+    assertEquals("city", new EntityTypeMatcher("city").typeOf("CITY"));
+  }
+
+  @Test
+  public void testNewOutput() {
+    final Map<String, List<String>> output = new EntityTypeMatcher("location,organization").newOutput();
+    assertEquals(2, output.size());
+    assertTrue(output.get("location").isEmpty());
+    assertTrue(output.get("organization").isEmpty());
+  }
+}
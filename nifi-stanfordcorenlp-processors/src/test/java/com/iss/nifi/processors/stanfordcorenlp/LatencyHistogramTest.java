@@ -0,0 +1,76 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsCoverTheirValues() {
+    for (long micros = 0; micros < 100000; micros += 7) {
+      final int bucket = LatencyHistogram.bucket(micros);
+      assertTrue(LatencyHistogram.upperBound(bucket) >= micros);
+      assertTrue(bucket == 0 || LatencyHistogram.upperBound(bucket - 1) < micros);
+    }
+    assertTrue(LatencyHistogram.bucket(Long.MAX_VALUE) >= 0);
+  }
+
+  @Test
+  public void testPercentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    assertEquals(100, histogram.getCount());
+    assertWithin(50000, histogram.percentile(0.50));
+    assertWithin(95000, histogram.percentile(0.95));
+    assertWithin(99000, histogram.percentile(0.99));
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.percentile(0.99));
+  }
+
+  @Test
+  public void testTakeNewMillis() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(1500));
+    assertEquals(1, histogram.takeNewMillis());
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(600));
+    assertEquals(1, histogram.takeNewMillis());
+    assertEquals(0, histogram.takeNewMillis());
+  }
+
+  private static void assertWithin(final long expected, final long actual) {
+    assertTrue(actual + " is not within 25% of " + expected, actual >= expected && actual <= expected * 1.25);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.ProtobufAnnotationSerializer;
+import edu.stanford.nlp.util.CoreMap;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MentionDecoderTest {
+
+  private static final String TEXT = "A worldwide film production company is expanding to Albuquerque, according to "
+      + "Albuquerque Business First. The company, Production Resource Group, has worked on various movie productions.";
+
+  private static byte[] serialized;
+  private static List<CoreMap> expected;
+
+  @BeforeClass
+  public static void annotate() throws Exception {
+    final Annotation annotation = new Annotation(TEXT);
+    StanfordCoreNLPService.createPipeline(null).annotate(annotation);
+
+    final ProtobufAnnotationSerializer serializer = new ProtobufAnnotationSerializer(true);
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    serializer.write(annotation, os);
+    serialized = os.toByteArray();
+    expected = serializer.read(new ByteArrayInputStream(serialized)).first
+        .get(CoreAnnotations.MentionsAnnotation.class);
+  }
+
+  @Test
+  public void testMatchesSerializer() throws IOException {
+    final List<CoreMap> mentions = MentionDecoder.readMentions(new ByteArrayInputStream(serialized), TEXT);
+
+    assertFalse(expected.isEmpty());
+    assertEquals(expected.size(), mentions.size());
+    for (int i = 0; i < expected.size(); i++) {
+      final CoreMap want = expected.get(i);
+      final CoreMap got = mentions.get(i);
+      assertEquals(want.get(CoreAnnotations.TextAnnotation.class), got.get(CoreAnnotations.TextAnnotation.class));
+      assertEquals(want.get(CoreAnnotations.NamedEntityTagAnnotation.class),
+          got.get(CoreAnnotations.NamedEntityTagAnnotation.class));
+      assertEquals(want.get(CoreAnnotations.EntityTypeAnnotation.class),
+          got.get(CoreAnnotations.EntityTypeAnnotation.class));
+      assertEquals(want.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class),
+          got.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class));
+      assertEquals(want.get(CoreAnnotations.CharacterOffsetEndAnnotation.class),
+          got.get(CoreAnnotations.CharacterOffsetEndAnnotation.class));
+    }
+  }
+
+  @Test
+  public void testJoinsTokensWithoutText() throws IOException {
+    // offsets past the end of the text that was sent cannot be trusted, the tokens are joined instead
+    final List<CoreMap> mentions = MentionDecoder.readMentions(new ByteArrayInputStream(serialized), "");
+
+    assertEquals(expected.size(), mentions.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).get(CoreAnnotations.TextAnnotation.class),
+          mentions.get(i).get(CoreAnnotations.TextAnnotation.class));
+      assertNull(mentions.get(i).get(CoreAnnotations.CharacterOffsetBeginAnnotation.class));
+    }
+  }
+}
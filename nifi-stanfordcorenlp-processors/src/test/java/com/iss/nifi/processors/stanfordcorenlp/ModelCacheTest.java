@@ -0,0 +1,84 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ModelCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testDecompressesGzippedModels() throws IOException {
+    final File model = folder.newFile("model.ser.gz");
+    try (final OutputStream out = new GZIPOutputStream(new FileOutputStream(model))) {
+      out.write("model".getBytes(StandardCharsets.UTF_8));
+    }
+    final File dir = folder.newFolder("cache");
+
+    final Properties props = new Properties();
+    props.setProperty("annotators", "tokenize,ssplit,pos,lemma,ner");
+    props.setProperty("ner.model", model.getAbsolutePath());
+    final Properties cached = ModelCache.apply(props, dir);
+
+    final File copy = new File(cached.getProperty("ner.model"));
+    assertEquals(dir, copy.getParentFile());
+    assertTrue(copy.getName().endsWith("-model.ser"));
+    assertEquals("model", new String(Files.readAllBytes(copy.toPath()), StandardCharsets.UTF_8));
+    assertEquals(model.getAbsolutePath(), props.getProperty("ner.model"));
+
+    // a second start reuses the copy
+    assertEquals(copy.getAbsolutePath(), ModelCache.apply(props, dir).getProperty("ner.model"));
+    assertEquals(1, dir.listFiles().length);
+  }
+
+  @Test
+  public void testLeavesOtherModels() throws IOException {
+    final Properties props = new Properties();
+    props.setProperty("annotators", "tokenize,ssplit,pos,lemma,ner");
+    props.setProperty("ner.model", "model.ser");
+    props.setProperty("parse.model", "parser.ser.gz");
+
+    final Properties cached = ModelCache.apply(props, folder.newFolder("cache"));
+    assertEquals("model.ser", cached.getProperty("ner.model"));
+    assertEquals("parser.ser.gz", cached.getProperty("parse.model"));
+  }
+}
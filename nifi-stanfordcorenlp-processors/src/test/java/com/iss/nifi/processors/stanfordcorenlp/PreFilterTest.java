@@ -0,0 +1,63 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PreFilterTest {
+
+  @Test
+  public void testMinLength() {
+    final PreFilter filter = new PreFilter(10, null, false);
+    assertTrue(filter.skips("ok"));
+    assertFalse(filter.skips("long enough text"));
+  }
+
+  @Test
+  public void testPattern() {
+    final PreFilter filter = new PreFilter(0, Pattern.compile("Albuquerque|Santa Fe"), false);
+    assertTrue(filter.skips("nothing to see here"));
+    assertFalse(filter.skips("A company is expanding to Albuquerque."));
+  }
+
+  @Test
+  public void testRequireCapitalized() {
+    final PreFilter filter = new PreFilter(0, null, true);
+    assertTrue(filter.skips("Server is back up. All good now!"));
+    assertFalse(filter.skips("The company is expanding to Albuquerque."));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertTrue(new PreFilter(0, null, false).isEmpty());
+    assertFalse(new PreFilter(0, null, false).skips(""));
+  }
+}
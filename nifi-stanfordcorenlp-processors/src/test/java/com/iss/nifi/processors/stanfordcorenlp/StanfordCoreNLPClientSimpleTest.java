@@ -0,0 +1,403 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StanfordCoreNLPClientSimpleTest {
+
+  private static StubCoreNLPServer server;
+
+  @BeforeClass
+  public static void startServer() throws IOException {
+    // annotating is beside the point here, the stub echoes documents back as they came
+    server = new StubCoreNLPServer(new AnnotationPipeline(), 8);
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    server.close();
+  }
+
+  @Before
+  public void resetServer() {
+    server.reset();
+  }
+
+  private static StanfordCoreNLPClientSimple.Builder client() {
+    return new StanfordCoreNLPClientSimple.Builder(new Properties())
+        .hosts(server.getHost(), server.getPort())
+        .healthCheckInterval(0);
+  }
+
+  @Test
+  public void testHungServerTimesOut() throws Exception {
+    final StanfordCoreNLPClientSimple client = client()
+        .timeouts(1000, 200, 1000)
+        .retries(1, 10, 10)
+        .build();
+    server.setLatency(2000);
+
+    final Annotation annotation = client.annotateAsync(new Annotation("Text.")).get(10, TimeUnit.SECONDS);
+
+    // the server is still working on the document, sending it again would only add to its load
+    final Throwable error = annotation.get(CoreAnnotations.ExceptionAnnotation.class);
+    assertTrue(String.valueOf(error), StanfordCoreNLPClientSimple.isTimedOut(error));
+    assertFalse(StanfordCoreNLPClientSimple.isRetryable(error));
+    assertEquals(1, server.getRequests());
+
+    client.shutdown();
+  }
+
+  @Test
+  public void testInFlightIsBounded() throws Exception {
+    final StanfordCoreNLPClientSimple client = client().maxInFlight(2).build();
+    server.setLatency(100);
+
+    final List<CompletableFuture<Annotation>> responses = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      responses.add(client.annotateAsync(new Annotation("Text " + i + ".")));
+    }
+    for (final CompletableFuture<Annotation> response : responses) {
+      assertNull(response.get(10, TimeUnit.SECONDS).get(CoreAnnotations.ExceptionAnnotation.class));
+    }
+
+    assertEquals(6, server.getRequests());
+    assertEquals(2, server.getPeakConcurrency());
+
+    client.shutdown();
+  }
+
+  @Test
+  public void testConnectionsAreKeptAlive() throws Exception {
+    final StanfordCoreNLPClientSimple client = client().poolSize(1).build();
+
+    for (int i = 0; i < 5; i++) {
+      assertNull(client.process("Text " + i + ".").get(CoreAnnotations.ExceptionAnnotation.class));
+    }
+
+    assertEquals(5, server.getRequests());
+    assertEquals(1, server.getConnections());
+
+    client.shutdown();
+  }
+
+  @Test
+  public void testProbeDoesNotWaitForPool() throws Exception {
+    final StanfordCoreNLPClientSimple client = client().poolSize(1).maxInFlight(2).build();
+    server.setLatency(3000);
+
+    // one annotation holds the only pooled connection, the other waits for it
+    final List<CompletableFuture<Annotation>> responses = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      responses.add(client.annotateAsync(new Annotation("Text " + i + ".")));
+    }
+    final long start = System.nanoTime();
+    assertTrue(client.checkStatus(new URL(server.getHost() + ':' + server.getPort() + "/live")));
+    final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Probe took " + millis + " ms", millis < 2000);
+
+    for (final CompletableFuture<Annotation> response : responses) {
+      response.get(10, TimeUnit.SECONDS);
+    }
+    client.shutdown();
+  }
+
+  @Test
+  public void testBackoffIsExponentialWithJitter() {
+    final StanfordCoreNLPClientSimple client = client().retries(5, 100, 1000).build();
+
+    for (int tries = 0; tries < 6; tries++) {
+      final long ceiling = Math.min(1000, 100L << tries);
+      long longest = 0;
+      for (int i = 0; i < 200; i++) {
+        final long delay = client.backoffMillis(tries, new IOException());
+        assertTrue(delay + " ms after " + tries + " tries", delay >= 0 && delay <= ceiling);
+        longest = Math.max(longest, delay);
+      }
+      assertTrue(longest + " ms after " + tries + " tries", longest > ceiling / 2);
+    }
+    assertEquals(300, client.backoffMillis(0, new StanfordCoreNLPClientSimple.UnavailableException("", 300)));
+    assertEquals(1000, client.backoffMillis(0, new StanfordCoreNLPClientSimple.UnavailableException("", 5000)));
+
+    client.shutdown();
+  }
+
+  @Test
+  public void testRetryAfterIsHonoured() {
+    final StanfordCoreNLPClientSimple client = client().retries(1, 0, 10000).build();
+    server.failNext(1, 503);
+    server.setRetryAfter(1);
+
+    final long start = System.nanoTime();
+    assertNull(client.process("Text.").get(CoreAnnotations.ExceptionAnnotation.class));
+    final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertEquals(2, server.getRequests());
+    assertTrue("Retried after " + millis + " ms", millis >= 1000);
+
+    client.shutdown();
+  }
+
+  @Test
+  public void testCircuitBreakerOpens() {
+    final StanfordCoreNLPClientSimple client = client().retries(0, 0, 0).circuitBreaker(3, 60000).build();
+    server.setFailureRate(1, 503);
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(StanfordCoreNLPClientSimple.isRetryable(
+          client.process("Text.").get(CoreAnnotations.ExceptionAnnotation.class)));
+    }
+    assertEquals(3, server.getRequests());
+
+    // the circuit is open, the request fails without reaching the server
+    final Throwable error = client.process("Text.").get(CoreAnnotations.ExceptionAnnotation.class);
+    assertTrue(error instanceof StanfordCoreNLPClientSimple.UnavailableException);
+    assertEquals(3, server.getRequests());
+
+    client.shutdown();
+  }
+
+  @Test
+  public void testServerErrorsDoNotOpenCircuitBreaker() {
+    final StanfordCoreNLPClientSimple client = client().retries(3, 0, 0).circuitBreaker(2, 60000).build();
+    server.failNext(3, 500);
+
+    for (int i = 0; i < 3; i++) {
+      final Throwable error = client.process("Text.").get(CoreAnnotations.ExceptionAnnotation.class);
+      assertFalse(String.valueOf(error), StanfordCoreNLPClientSimple.isRetryable(error));
+    }
+    assertNull(client.process("Text.").get(CoreAnnotations.ExceptionAnnotation.class));
+    assertEquals(4, server.getRequests());
+
+    client.shutdown();
+  }
+
+  @Test
+  public void testCircuitBreakerRecoversWhenHalfOpen() throws InterruptedException {
+    final StanfordCoreNLPClientSimple client = client().retries(0, 0, 0).circuitBreaker(2, 200).build();
+
+    // a failed trial opens the circuit again
+    server.failNext(3, 503);
+    client.process("Text.");
+    client.process("Text.");
+    Thread.sleep(300);
+    assertTrue(client.process("Text.").containsKey(CoreAnnotations.ExceptionAnnotation.class));
+    assertTrue(client.process("Text.").containsKey(CoreAnnotations.ExceptionAnnotation.class));
+    assertEquals(3, server.getRequests());
+
+    // a successful trial closes it and starts the count over
+    Thread.sleep(300);
+    assertNull(client.process("Text.").get(CoreAnnotations.ExceptionAnnotation.class));
+    server.failNext(1, 503);
+    assertTrue(client.process("Text.").containsKey(CoreAnnotations.ExceptionAnnotation.class));
+    assertNull(client.process("Text.").get(CoreAnnotations.ExceptionAnnotation.class));
+    assertEquals(6, server.getRequests());
+
+    client.shutdown();
+  }
+
+  @Test
+  public void testCompression() {
+    final String text = "The company, Production Resource Group, is expanding to Albuquerque.";
+
+    final StanfordCoreNLPClientSimple both = client().compression(0).responseCompression(true).build();
+    final Annotation annotation = both.process(text);
+    assertNull(annotation.get(CoreAnnotations.ExceptionAnnotation.class));
+    assertEquals(text, annotation.get(CoreAnnotations.TextAnnotation.class));
+    assertEquals(1, server.getGzippedRequests());
+    assertEquals(1, server.getGzippedResponses());
+    both.shutdown();
+
+    // each direction is configured on its own
+    server.reset();
+    final StanfordCoreNLPClientSimple responses = client().responseCompression(true).build();
+    assertNull(responses.process(text).get(CoreAnnotations.ExceptionAnnotation.class));
+    assertEquals(0, server.getGzippedRequests());
+    assertEquals(1, server.getGzippedResponses());
+    responses.shutdown();
+
+    server.reset();
+    final StanfordCoreNLPClientSimple requests = client().compression(0).build();
+    assertNull(requests.process(text).get(CoreAnnotations.ExceptionAnnotation.class));
+    assertEquals(1, server.getGzippedRequests());
+    assertEquals(0, server.getGzippedResponses());
+    requests.shutdown();
+  }
+
+  @Test
+  public void testServerErrorsCutAdaptiveLimit() throws Exception {
+    final StanfordCoreNLPClientSimple client = client()
+        .maxInFlight(2)
+        .adaptiveConcurrency(true)
+        .retries(0, 0, 0)
+        .circuitBreaker(0, 0)
+        .build();
+    assertEquals(2, client.getConcurrencyLimit());
+
+    server.failNext(1, 500);
+    client.process("Text.");
+    assertEquals(1, client.getConcurrencyLimit());
+
+    // the second caller waits under the limit rather than on the in-flight maximum
+    server.reset();
+    server.setLatency(300);
+    final CompletableFuture<Annotation> first = client.annotateAsync(new Annotation("First."));
+    final CompletableFuture<Annotation> second = CompletableFuture.supplyAsync(
+        () -> client.annotateAsync(new Annotation("Second.")).join());
+    Thread.sleep(100);
+    assertEquals(1, server.getRequests());
+    assertFalse(second.isDone());
+
+    assertNull(first.get(10, TimeUnit.SECONDS).get(CoreAnnotations.ExceptionAnnotation.class));
+    assertNull(second.get(10, TimeUnit.SECONDS).get(CoreAnnotations.ExceptionAnnotation.class));
+    assertEquals(2, server.getRequests());
+
+    client.shutdown();
+  }
+
+  @Test
+  public void testLeastOutstandingBackend() throws Exception {
+    try (StubCoreNLPServer other = new StubCoreNLPServer(new AnnotationPipeline(), 8)) {
+      final StanfordCoreNLPClientSimple client = client()
+          .hosts(server.getHost() + ':' + server.getPort() + ',' + other.getHost() + ':' + other.getPort(), 0)
+          .build();
+      server.setLatency(300);
+      other.setLatency(300);
+
+      final List<CompletableFuture<Annotation>> responses = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        responses.add(client.annotateAsync(new Annotation("Text " + i + ".")));
+      }
+      for (final CompletableFuture<Annotation> response : responses) {
+        response.get(10, TimeUnit.SECONDS);
+      }
+
+      assertEquals(2, server.getRequests());
+      assertEquals(2, other.getRequests());
+      client.shutdown();
+    }
+  }
+
+  @Test
+  public void testUnreachableBackendIsEjected() throws Exception {
+    try (StubCoreNLPServer other = new StubCoreNLPServer(new AnnotationPipeline(), 8)) {
+      final StanfordCoreNLPClientSimple client = client()
+          .hosts(server.getHost() + ':' + server.getPort() + ',' + other.getHost() + ':' + other.getPort(), 0)
+          .healthCheckInterval(60000)
+          .timeouts(1000, 200, 1000)
+          .retries(0, 0, 0)
+          .build();
+
+      // an error answer shows the backend is up, it stays in rotation
+      other.failNext(2, 500);
+      for (int i = 0; i < 6; i++) {
+        client.process("Text " + i + ".");
+      }
+      assertEquals(3, other.getRequests());
+
+      // a backend that times out is taken out of rotation
+      other.reset();
+      other.setLatency(1000);
+      int failed = 0;
+      for (int i = 0; i < 6; i++) {
+        if (client.process("Text " + i + ".").containsKey(CoreAnnotations.ExceptionAnnotation.class)) {
+          failed++;
+        }
+      }
+      assertEquals(1, failed);
+      assertEquals(1, other.getRequests());
+      client.shutdown();
+    }
+  }
+
+  @Test
+  public void testRetriesDoNotWaitForProbes() throws Exception {
+    try (StubCoreNLPServer other = new StubCoreNLPServer(new AnnotationPipeline(), 8)) {
+      other.setLiveLatency(3000);
+      final StanfordCoreNLPClientSimple client = client()
+          .hosts(server.getHost() + ':' + server.getPort() + ',' + other.getHost() + ':' + other.getPort(), 0)
+          .healthCheckInterval(50)
+          .retries(1, 10, 10)
+          .build();
+      Thread.sleep(200);
+
+      // whichever backend gets the request turns it away once, its retry is due in 10 ms
+      server.failNext(1, 503);
+      other.failNext(1, 503);
+      final long start = System.nanoTime();
+      assertNull(client.process("Text.").get(CoreAnnotations.ExceptionAnnotation.class));
+      final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue("Retry took " + millis + " ms", millis < 1500);
+      client.shutdown();
+    }
+  }
+
+  @Test
+  public void testEjectedBackendIsReadmitted() throws Exception {
+    try (StubCoreNLPServer other = new StubCoreNLPServer(new AnnotationPipeline(), 8)) {
+      final StanfordCoreNLPClientSimple client = client()
+          .hosts(server.getHost() + ':' + server.getPort() + ',' + other.getHost() + ':' + other.getPort(), 0)
+          .healthCheckInterval(100)
+          .build();
+
+      other.setAlive(false);
+      Thread.sleep(500);
+      for (int i = 0; i < 4; i++) {
+        assertNull(client.process("Text " + i + ".").get(CoreAnnotations.ExceptionAnnotation.class));
+      }
+      assertEquals(0, other.getRequests());
+
+      other.setAlive(true);
+      Thread.sleep(500);
+      for (int i = 0; i < 4; i++) {
+        assertNull(client.process("Text " + i + ".").get(CoreAnnotations.ExceptionAnnotation.class));
+      }
+      assertEquals(2, other.getRequests());
+      client.shutdown();
+    }
+  }
+}
@@ -25,30 +25,50 @@
 
 package com.iss.nifi.processors.stanfordcorenlp;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import com.google.gson.Gson;
 
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 public class StanfordCoreNLPProcessorTest {
 
+    private static StubCoreNLPServer server;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new StubCoreNLPServer(1);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
     @Test
     public void testProcessor() {
         final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
         testRunner.setThreadCount(1);
 
         testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "false");
         testRunner.setProperty(StanfordCoreNLPProcessor.PATH_PROPERTY, "$.['title','content']");
         // testRunner.setProperty(StanfordCoreNLPProcessor.PATH_PROPERTY, "$.content");
 
@@ -89,9 +109,10 @@ public class StanfordCoreNLPProcessorTest {
         testRunner.setThreadCount(1);
 
         testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "false");
         testRunner.setProperty(StanfordCoreNLPProcessor.PATH_PROPERTY, "$.['title','content']");
-        testRunner.setProperty(StanfordCoreNLPProcessor.HOST_PROPERTY, "http://localhost");
-        testRunner.setProperty(StanfordCoreNLPProcessor.PORT_PROPERTY, "9000");
+        testRunner.setProperty(StanfordCoreNLPProcessor.HOST_PROPERTY, server.getHost());
+        testRunner.setProperty(StanfordCoreNLPProcessor.PORT_PROPERTY, String.valueOf(server.getPort()));
 
         try {
             testRunner.enqueue(new FileInputStream(new File("src/test/resources/test.json")));
@@ -123,4 +144,243 @@ public class StanfordCoreNLPProcessorTest {
 
         testRunner.shutdown();
     }
+
+    @Test
+    public void testGetTextFromJson() {
+        final StanfordCoreNLPProcessor processor = new StanfordCoreNLPProcessor();
+        final String json = "{\"title\":\"Title\",\"content\":null,\"body\":{\"lead\":\"Lead\",\"extra\":null},"
+                + "\"paragraphs\":[\"First\",null,\"Second\"],\"sections\":[{\"text\":\"Nested\"},{\"text\":null}]}";
+
+        assertEquals("Title", processor.getTextFromJson(json, "$.['title','content']"));
+        assertEquals("Lead", processor.getTextFromJson(json, "$.body"));
+        assertEquals("Lead", processor.getTextFromJson(json, "$.body.lead"));
+        assertEquals("First Second", processor.getTextFromJson(json, "$.paragraphs"));
+        assertEquals("Nested", processor.getTextFromJson(json, "$.sections[*].text"));
+        assertEquals("Nested", processor.getTextFromJson(json, "$.sections"));
+    }
+
+    @Test
+    public void testProcessorBatches() {
+        final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+        testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "false");
+        testRunner.setProperty(StanfordCoreNLPProcessor.HOST_PROPERTY, server.getHost());
+        testRunner.setProperty(StanfordCoreNLPProcessor.PORT_PROPERTY, String.valueOf(server.getPort()));
+        testRunner.setProperty(StanfordCoreNLPProcessor.BATCH_SIZE_PROPERTY, "3");
+        testRunner.setProperty(StanfordCoreNLPProcessor.CACHE_SIZE_PROPERTY, "100");
+        testRunner.setProperty(StanfordCoreNLPProcessor.MAX_RETRIES_PROPERTY, "0");
+        testRunner.setValidateExpressionUsage(false);
+
+        server.reset();
+        try {
+            // more flow files than one batch holds, one of them empty and one failed by the server
+            for (int i = 0; i < 7; i++) {
+                testRunner.enqueue("Production Resource Group opened office number " + i + " in Albuquerque.");
+            }
+            testRunner.enqueue("");
+            server.failNext(1, 500);
+            testRunner.run(3);
+
+            testRunner.assertQueueEmpty();
+            testRunner.assertTransferCount(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP, 6);
+            testRunner.assertTransferCount(StanfordCoreNLPProcessor.FAILURE_RELATIONSHIP, 2);
+            for (final MockFlowFile flowFile : testRunner
+                    .getFlowFilesForRelationship(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP)) {
+                final Map<String, List<String>> entities = new Gson()
+                        .fromJson(flowFile.getAttribute(StanfordCoreNLPProcessor.OUTPUT_ATTR), Map.class);
+                assertTrue(entities.get("organization").contains("Production Resource Group"));
+            }
+            assertEquals(7, server.getRequests());
+            assertEquals(Long.valueOf(7), testRunner.getCounterValue("Result Cache Misses"));
+        } finally {
+            server.reset();
+            testRunner.shutdown();
+        }
+    }
+
+    @Test
+    public void testProcessorWarmUp() throws InterruptedException {
+        final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+        testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.enqueue("Production Resource Group is expanding to Albuquerque.");
+        testRunner.setValidateExpressionUsage(false);
+
+        // the models load in the background, flow files wait until they are ready
+        testRunner.run(1, false, true);
+        final long deadline = System.currentTimeMillis() + 120000;
+        while (testRunner.getFlowFilesForRelationship(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP).isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            testRunner.run(1, false, false);
+        }
+
+        testRunner.assertAllFlowFilesTransferred(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP, 1);
+        final Map<String, List<String>> entities = new Gson().fromJson(testRunner
+                .getFlowFilesForRelationship(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP).get(0)
+                .getAttribute(StanfordCoreNLPProcessor.OUTPUT_ATTR), Map.class);
+        assertTrue(entities.get("location").contains("Albuquerque"));
+
+        testRunner.shutdown();
+    }
+
+    @Test
+    public void testProcessorWarmUpFailureBacksOff() throws InterruptedException {
+        final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+        testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.setProperty(StanfordCoreNLPProcessor.PROPS_PROPERTY, "{\"annotators\": \"tokenize,nosuchannotator\"}");
+        testRunner.setProperty(StanfordCoreNLPProcessor.PRUNE_ANNOTATORS_PROPERTY, "false");
+        testRunner.enqueue("Production Resource Group is expanding to Albuquerque.");
+        testRunner.setValidateExpressionUsage(false);
+
+        testRunner.run(1, false, true);
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (testRunner.getLogger().getErrorMessages().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            testRunner.run(1, false, false);
+        }
+        assertEquals(1, testRunner.getLogger().getErrorMessages().size());
+
+        // the failure is reported once, loading is not tried again on every trigger
+        for (int i = 0; i < 20; i++) {
+            testRunner.run(1, false, false);
+        }
+        assertEquals(1, testRunner.getLogger().getErrorMessages().size());
+        testRunner.assertQueueNotEmpty();
+
+        testRunner.run(0, true, false);
+        testRunner.shutdown();
+    }
+
+    @Test
+    public void testProcessorStopsDuringWarmUp() {
+        final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+        testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.enqueue("Production Resource Group is expanding to Albuquerque.");
+        testRunner.setValidateExpressionUsage(false);
+
+        // stopping does not wait for the models, the warm-up releases them once loaded
+        final long start = System.nanoTime();
+        testRunner.run(1, true, true);
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("Stopping took " + millis + " ms", millis < 2000);
+        testRunner.assertQueueNotEmpty();
+        testRunner.shutdown();
+    }
+
+    @Test
+    public void testProcessorStreaming() {
+        final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+        testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "false");
+        testRunner.setProperty(StanfordCoreNLPProcessor.STREAMING_THRESHOLD_PROPERTY, "1 B");
+        testRunner.setProperty(StanfordCoreNLPProcessor.MAX_CHUNK_LENGTH_PROPERTY, "150");
+
+        testRunner.enqueue("A worldwide film production company is expanding to Albuquerque, according to Albuquerque Business First. "
+                + "The company, Production Resource Group, has worked on various movie productions including \"House of Cards.\"");
+        testRunner.setValidateExpressionUsage(false);
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP, 1);
+        final MockFlowFile flowFile = testRunner
+                .getFlowFilesForRelationship(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP).get(0);
+        assertNull(flowFile.getAttribute(StanfordCoreNLPProcessor.OUTPUT_ATTR));
+
+        final Map<String, List<String>> entities = new Gson()
+                .fromJson(new String(flowFile.toByteArray(), StandardCharsets.UTF_8), Map.class);
+        assertTrue(entities.get("organization").contains("Albuquerque Business First"));
+        assertTrue(entities.get("organization").contains("Production Resource Group"));
+        assertTrue(entities.get("location").contains("Albuquerque"));
+
+        testRunner.shutdown();
+    }
+
+    @Test
+    public void testProcessorMarksSkippedWhetherStreamingOrNot() {
+        for (final String threshold : new String[] { "1 B", "1 GB" }) {
+            final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+            testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+            testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "false");
+            testRunner.setProperty(StanfordCoreNLPProcessor.STREAMING_THRESHOLD_PROPERTY, threshold);
+            testRunner.setProperty(StanfordCoreNLPProcessor.MAX_CHUNK_LENGTH_PROPERTY, "150");
+            testRunner.setProperty(StanfordCoreNLPProcessor.PRE_FILTER_MIN_LENGTH_PROPERTY, "1000");
+
+            testRunner.enqueue("A worldwide film production company is expanding to Albuquerque, according to Albuquerque Business First.");
+            testRunner.setValidateExpressionUsage(false);
+            testRunner.run();
+
+            testRunner.assertAllFlowFilesTransferred(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP, 1);
+            testRunner.getFlowFilesForRelationship(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP).get(0)
+                    .assertAttributeEquals(StanfordCoreNLPProcessor.SKIPPED_ATTR, "true");
+            assertEquals(Long.valueOf(1), testRunner.getCounterValue("Pre-Filter Skipped"));
+            testRunner.shutdown();
+        }
+    }
+
+    @Test
+    public void testProcessorRoutesUnavailableToRetry() {
+        final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+        testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "false");
+        testRunner.setProperty(StanfordCoreNLPProcessor.HOST_PROPERTY, server.getHost());
+        testRunner.setProperty(StanfordCoreNLPProcessor.PORT_PROPERTY, String.valueOf(server.getPort()));
+        testRunner.setProperty(StanfordCoreNLPProcessor.MAX_RETRIES_PROPERTY, "1");
+        testRunner.setProperty(StanfordCoreNLPProcessor.RETRY_BACKOFF_PROPERTY, "1 millis");
+        testRunner.setValidateExpressionUsage(false);
+
+        server.reset();
+        try {
+            // the host keeps turning requests away, the flow file may succeed later
+            server.setFailureRate(1, 503);
+            testRunner.enqueue("Production Resource Group is expanding to Albuquerque.");
+            testRunner.run();
+            testRunner.assertAllFlowFilesTransferred(StanfordCoreNLPProcessor.RETRY_RELATIONSHIP, 1);
+            assertTrue(testRunner.getFlowFilesForRelationship(StanfordCoreNLPProcessor.RETRY_RELATIONSHIP).get(0)
+                    .isPenalized());
+            assertEquals(2, server.getRequests());
+
+            // the host answers with an error, trying again would not help
+            testRunner.clearTransferState();
+            server.reset();
+            server.setFailureRate(1, 500);
+            testRunner.enqueue("Production Resource Group is expanding to Albuquerque.");
+            testRunner.run();
+            testRunner.assertAllFlowFilesTransferred(StanfordCoreNLPProcessor.FAILURE_RELATIONSHIP, 1);
+            assertEquals(1, server.getRequests());
+        } finally {
+            server.reset();
+            testRunner.shutdown();
+        }
+    }
+
+    @Test
+    public void testProcessorReportsConcurrencyLimit() {
+        final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+        testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "false");
+        testRunner.setProperty(StanfordCoreNLPProcessor.HOST_PROPERTY, server.getHost());
+        testRunner.setProperty(StanfordCoreNLPProcessor.PORT_PROPERTY, String.valueOf(server.getPort()));
+        testRunner.setProperty(StanfordCoreNLPProcessor.MAX_IN_FLIGHT_PROPERTY, "10");
+        testRunner.setProperty(StanfordCoreNLPProcessor.ADAPTIVE_CONCURRENCY_PROPERTY, "true");
+        testRunner.setProperty(StanfordCoreNLPProcessor.MAX_RETRIES_PROPERTY, "0");
+        testRunner.setValidateExpressionUsage(false);
+
+        server.reset();
+        try {
+            testRunner.enqueue("Production Resource Group is expanding to Albuquerque.");
+            testRunner.run(1, false, true);
+            assertEquals(Long.valueOf(10), testRunner.getCounterValue("Concurrency Limit"));
+
+            // a server error is a sign of overload, the limit is cut by a tenth
+            server.failNext(1, 500);
+            testRunner.enqueue("Albuquerque Business First reported it.");
+            testRunner.run(1, false, false);
+            testRunner.assertTransferCount(StanfordCoreNLPProcessor.FAILURE_RELATIONSHIP, 1);
+            assertEquals(Long.valueOf(9), testRunner.getCounterValue("Concurrency Limit"));
+        } finally {
+            server.reset();
+            testRunner.run(0, true, false);
+            testRunner.shutdown();
+        }
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.serialization.AbstractRecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.record.MockRecordParser;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Test;
+
+public class StanfordCoreNLPRecordProcessorTest {
+
+    private static final Gson GSON = new Gson();
+
+    @Test
+    public void testProcessor() throws InitializationException {
+        final MockRecordParser parser = new MockRecordParser();
+        parser.addSchemaField("id", RecordFieldType.INT);
+        parser.addSchemaField("title", RecordFieldType.STRING);
+        parser.addSchemaField("content", RecordFieldType.STRING);
+        parser.addRecord(1, "Film company expands",
+                "A worldwide film production company is expanding to Albuquerque, according to Albuquerque Business First.");
+        parser.addRecord(2, "", null);
+        final TestRunner testRunner = newTestRunner(parser);
+
+        testRunner.enqueue(new byte[0]);
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP, 1);
+        final MockFlowFile flowFile = testRunner
+                .getFlowFilesForRelationship(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP).get(0);
+        flowFile.assertAttributeEquals(StanfordCoreNLPRecordProcessor.RECORD_COUNT_ATTR, "2");
+
+        final String[] lines = new String(flowFile.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        final Map<String, Object> first = GSON.fromJson(lines[0], Map.class);
+        assertEquals("Film company expands", first.get("title"));
+        assertTrue(((List<?>) first.get("organization")).contains("Albuquerque Business First"));
+        assertTrue(((List<?>) first.get("location")).contains("Albuquerque"));
+        final Map<String, Object> second = GSON.fromJson(lines[1], Map.class);
+        assertTrue(((List<?>) second.get("organization")).isEmpty());
+        assertTrue(((List<?>) second.get("location")).isEmpty());
+
+        testRunner.shutdown();
+    }
+
+    @Test
+    public void testProcessorWarmsUpInBackground() throws InitializationException, InterruptedException {
+        final MockRecordParser parser = new MockRecordParser();
+        parser.addSchemaField("content", RecordFieldType.STRING);
+        parser.addRecord("A worldwide film production company is expanding to Albuquerque.");
+        final TestRunner testRunner = newTestRunner(parser);
+        testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "true");
+        testRunner.enqueue(new byte[0]);
+
+        // the record processor has no character set property, creating its service must not need one
+        testRunner.run(1, false, true);
+        final long deadline = System.currentTimeMillis() + 120000;
+        while (testRunner.getFlowFilesForRelationship(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP).isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            testRunner.run(1, false, false);
+        }
+
+        testRunner.assertAllFlowFilesTransferred(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP, 1);
+        assertTrue(testRunner.getLogger().getErrorMessages().isEmpty());
+        testRunner.shutdown();
+    }
+
+    @Test
+    public void testMalformedRecords() throws InitializationException {
+        final MockRecordParser parser = new MockRecordParser();
+        parser.addSchemaField("content", RecordFieldType.STRING);
+        parser.addRecord("");
+        parser.addRecord("");
+        parser.failAfter(1);
+        final TestRunner testRunner = newTestRunner(parser);
+
+        testRunner.enqueue(new byte[0]);
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(StanfordCoreNLPProcessor.FAILURE_RELATIONSHIP, 1);
+        testRunner.shutdown();
+    }
+
+    private static TestRunner newTestRunner(final MockRecordParser parser) throws InitializationException {
+        final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPRecordProcessor.class);
+        final JsonLinesWriter writer = new JsonLinesWriter();
+        testRunner.addControllerService("reader", parser);
+        testRunner.addControllerService("writer", writer);
+        testRunner.enableControllerService(parser);
+        testRunner.enableControllerService(writer);
+
+        testRunner.setProperty(StanfordCoreNLPRecordProcessor.RECORD_READER_PROPERTY, "reader");
+        testRunner.setProperty(StanfordCoreNLPRecordProcessor.RECORD_WRITER_PROPERTY, "writer");
+        testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY, "location,organization");
+        testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "false");
+        testRunner.setProperty(StanfordCoreNLPRecordProcessor.TEXT_FIELDS_PROPERTY, "title,content");
+        testRunner.setValidateExpressionUsage(false);
+        return testRunner;
+    }
+
+    /**
+     * Writes every record as a line of JSON, its arrays included.
+     */
+    private static class JsonLinesWriter extends AbstractControllerService implements RecordSetWriterFactory {
+        @Override
+        public RecordSchema getSchema(final Map<String, String> variables, final RecordSchema readSchema) {
+            return readSchema;
+        }
+
+        @Override
+        public RecordSetWriter createWriter(final ComponentLog logger, final RecordSchema schema, final OutputStream out) {
+            return new AbstractRecordSetWriter(out) {
+                @Override
+                protected Map<String, String> writeRecord(final Record record) throws IOException {
+                    getOutputStream().write((GSON.toJson(record.toMap()) + "\n").getBytes(StandardCharsets.UTF_8));
+                    return Collections.emptyMap();
+                }
+
+                @Override
+                public String getMimeType() {
+                    return "application/json";
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Replays a directory of sample flow files through the processor, once with a
+ * local pipeline and once against a {@link StubCoreNLPServer}, and prints the
+ * throughput and latency percentiles of each. Used to size deployments and to
+ * compare the client between changes, so it only runs when asked to:
+ *
+ * <pre>
+ * mvn test -Dtest=StanfordCoreNLPReplayTest -Dreplay.dir=src/test/resources
+ * </pre>
+ *
+ * Further settings, as system properties:
+ * <ul>
+ * <li>replay.iterations - times every sample is replayed, default 10</li>
+ * <li>replay.batchSize - flow files per trigger, default 10</li>
+ * <li>replay.serverThreads - threads of the stub server, default one per core</li>
+ * <li>replay.latency - milliseconds the stub server waits before answering, default 0</li>
+ * <li>replay.host - replay against this server instead of the stub, such as http://nlp1:9000</li>
+ * <li>replay.props - the StanfordCoreNLP props as JSON</li>
+ * <li>replay.entities - default location,organization</li>
+ * <li>replay.path - default $.['title','content']</li>
+ * </ul>
+ */
+public class StanfordCoreNLPReplayTest {
+
+    private static final String DIR = System.getProperty("replay.dir");
+
+    @Test
+    public void testReplayLocal() throws IOException {
+        Assume.assumeTrue(DIR != null);
+
+        replay("local", null);
+    }
+
+    @Test
+    public void testReplayClient() throws IOException {
+        Assume.assumeTrue(DIR != null);
+
+        final String host = System.getProperty("replay.host");
+        if (host != null) {
+            replay("client " + host, host);
+            return;
+        }
+        try (StubCoreNLPServer server = new StubCoreNLPServer(
+                Integer.getInteger("replay.serverThreads", Runtime.getRuntime().availableProcessors()))) {
+            server.setLatency(Long.getLong("replay.latency", 0));
+            replay("client stub", server.getHost() + ":" + server.getPort());
+        }
+    }
+
+    private void replay(final String name, final String host) throws IOException {
+        final List<byte[]> samples = readSamples(new File(DIR));
+        Assume.assumeTrue(!samples.isEmpty());
+        final int iterations = Integer.getInteger("replay.iterations", 10);
+        final int batchSize = Integer.getInteger("replay.batchSize", 10);
+
+        final TestRunner testRunner = TestRunners.newTestRunner(StanfordCoreNLPProcessor.class);
+        testRunner.setValidateExpressionUsage(false);
+        testRunner.setProperty(StanfordCoreNLPProcessor.ENTITIES_PROPERTY,
+                System.getProperty("replay.entities", "location,organization"));
+        testRunner.setProperty(StanfordCoreNLPProcessor.PATH_PROPERTY,
+                System.getProperty("replay.path", "$.['title','content']"));
+        testRunner.setProperty(StanfordCoreNLPProcessor.BATCH_SIZE_PROPERTY, String.valueOf(batchSize));
+        testRunner.setProperty(StanfordCoreNLPProcessor.TIMING_ATTRIBUTE_PROPERTY, "true");
+        testRunner.setProperty(StanfordCoreNLPProcessor.BACKGROUND_WARM_UP_PROPERTY, "false");
+        if (System.getProperty("replay.props") != null) {
+            testRunner.setProperty(StanfordCoreNLPProcessor.PROPS_PROPERTY, System.getProperty("replay.props"));
+        }
+        if (host != null) {
+            testRunner.setProperty(StanfordCoreNLPProcessor.HOST_PROPERTY, host);
+        }
+
+        // Load the models and open the connections before measuring
+        testRunner.enqueue(samples.get(0));
+        testRunner.run(1, false, true);
+        testRunner.clearTransferState();
+
+        for (int i = 0; i < iterations; i++) {
+            for (final byte[] sample : samples) {
+                testRunner.enqueue(sample);
+            }
+        }
+        final int total = iterations * samples.size();
+        final long start = System.nanoTime();
+        testRunner.run((total + batchSize - 1) / batchSize, true, false);
+        final long elapsed = System.nanoTime() - start;
+
+        final Gson gson = new Gson();
+        final LatencyHistogram latency = new LatencyHistogram();
+        for (final MockFlowFile flowFile : testRunner.getFlowFilesForRelationship(StanfordCoreNLPProcessor.SUCCESS_RELATIONSHIP)) {
+            double millis = 0;
+            for (final Object stage : gson.fromJson(flowFile.getAttribute(StanfordCoreNLPProcessor.TIMING_ATTR), Map.class).values()) {
+                millis += ((Number) stage).doubleValue();
+            }
+            latency.record((long) (millis * 1000000));
+        }
+        final int failed = testRunner.getFlowFilesForRelationship(StanfordCoreNLPProcessor.FAILURE_RELATIONSHIP).size()
+                + testRunner.getFlowFilesForRelationship(StanfordCoreNLPProcessor.RETRY_RELATIONSHIP).size();
+
+        System.out.println(String.format(Locale.ROOT,
+                "Replay %s: %d flow files in %.2f s, %.1f per second, %d failed, latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms",
+                name, total, elapsed / 1e9, total / (elapsed / 1e9), failed,
+                latency.percentile(0.5) / 1000.0, latency.percentile(0.9) / 1000.0, latency.percentile(0.99) / 1000.0));
+
+        testRunner.shutdown();
+    }
+
+    private static List<byte[]> readSamples(final File dir) throws IOException {
+        final List<byte[]> samples = new ArrayList<byte[]>();
+        final File[] files = dir.listFiles(File::isFile);
+        if (files != null) {
+            Arrays.sort(files);
+            for (final File file : files) {
+                samples.add(Files.readAllBytes(file.toPath()));
+            }
+        }
+        return samples;
+    }
+}
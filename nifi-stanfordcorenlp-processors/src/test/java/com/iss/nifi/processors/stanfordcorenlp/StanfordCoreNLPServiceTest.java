@@ -27,14 +27,51 @@ package com.iss.nifi.processors.stanfordcorenlp;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 public class StanfordCoreNLPServiceTest {
 
+  private static StubCoreNLPServer server;
+
+  @BeforeClass
+  public static void startServer() throws IOException {
+    server = new StubCoreNLPServer(2);
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    server.close();
+  }
+
+  @Before
+  public void resetServer() {
+    server.reset();
+  }
+
   @Test
   public void testExtractEntities() {
     StanfordCoreNLPService svc = new StanfordCoreNLPService(StanfordCoreNLPService.createPipeline(null));
@@ -53,7 +90,7 @@ public class StanfordCoreNLPServiceTest {
   @Test
   public void testExtractEntitiesWithServer() {
     StanfordCoreNLPService svc = new StanfordCoreNLPService(
-      StanfordCoreNLPService.createPipeline(null, "http://localhost", 9000, null, null)
+      StanfordCoreNLPService.createPipeline(null, server.getHost(), server.getPort(), null, null)
     );
 
     final String text = "ALBUQUERQUE, N.M. — A worldwide film production company is expanding to Albuquerque, according to Albuquerque Business First. The company, Production Resource Group, has worked on various movie productions including \"House of Cards.\" They plan to move into a 6,000-square-foot warehouse space in northeast Albuquerque, located at 5821 Midway Park Blvd. NE. For more information, click here.";
@@ -66,4 +103,235 @@ public class StanfordCoreNLPServiceTest {
 
     svc = null;
   }
+
+  @Test
+  public void testExtractEntitiesWithServerRetries() {
+    StanfordCoreNLPService svc = new StanfordCoreNLPService(
+      StanfordCoreNLPService.createPipeline(null, server.getHost(), server.getPort(), null, null)
+    );
+    server.failNext(2, 503);
+
+    final String text = "The company, Production Resource Group, is expanding to Albuquerque.";
+
+    final Map<String, List<String>> entities = svc.extractEntities(text, "location,organization");
+
+    assertEquals("Production Resource Group", entities.get("organization").get(0));
+    assertEquals(3, server.getRequests());
+
+    svc.shutdown();
+  }
+
+  @Test
+  public void testExtractEntitiesWithServerPacking() {
+    final Properties props = StanfordCoreNLPService.sanitizeProps(null);
+    assertTrue(StanfordCoreNLPService.preparePacking(props));
+    final StanfordCoreNLPService svc = new StanfordCoreNLPService.Builder(new StanfordCoreNLPClientSimple.Builder(props)
+        .hosts(server.getHost(), server.getPort()).healthCheckInterval(0).mentionsOnly(true).build())
+        .packLength(1000)
+        .build();
+
+    final List<String> texts = Arrays.asList("Production Resource Group is expanding to Albuquerque",
+        "Nothing to see here.", "Albuquerque Business First reported it from Santa Fe.");
+    final List<String> types = Collections.nCopies(texts.size(), "location,organization");
+    final List<Map<String, List<String>>> entities = new ArrayList<Map<String, List<String>>>();
+    for (final CompletableFuture<Map<String, List<String>>> result : svc.extractEntities(texts, types)) {
+      entities.add(result.join());
+    }
+
+    assertEquals(1, server.getRequests());
+    assertEquals(Arrays.asList("Production Resource Group"), entities.get(0).get("organization"));
+    assertEquals(Arrays.asList("Albuquerque"), entities.get(0).get("location"));
+    assertTrue(entities.get(1).get("organization").isEmpty());
+    assertTrue(entities.get(1).get("location").isEmpty());
+    assertEquals(Arrays.asList("Albuquerque Business First"), entities.get(2).get("organization"));
+    assertEquals(Arrays.asList("Santa Fe"), entities.get(2).get("location"));
+
+    svc.shutdown();
+  }
+
+  @Test
+  public void testHybridRoutesByLength() {
+    final SleepingPipeline local = new SleepingPipeline(1);
+    final StanfordCoreNLPService svc = new StanfordCoreNLPService.Builder(local)
+        .remote(new StanfordCoreNLPClientSimple.Builder(StanfordCoreNLPService.sanitizeProps(null))
+            .hosts(server.getHost(), server.getPort()).healthCheckInterval(0).build(), 30, 0)
+        .build();
+
+    final List<String> texts = Arrays.asList("Short text.", "The company, Production Resource Group, is expanding to Albuquerque.",
+        "Another short one.");
+    final List<Map<String, List<String>>> entities = new ArrayList<Map<String, List<String>>>();
+    for (final CompletableFuture<Map<String, List<String>>> result : svc.extractEntities(texts,
+        Collections.nCopies(texts.size(), "location,organization"))) {
+      entities.add(result.join());
+    }
+
+    assertTrue(svc.isHybrid());
+    assertEquals(2, local.annotated.get());
+    assertEquals(1, server.getRequests());
+    assertEquals(2, svc.getRoutedLocal());
+    assertEquals(1, svc.getRoutedRemote());
+    assertEquals(Arrays.asList("Production Resource Group"), entities.get(1).get("organization"));
+    assertTrue(entities.get(0).get("organization").isEmpty());
+
+    svc.shutdown();
+  }
+
+  @Test
+  public void testHybridOverflowsToRemote() {
+    final SleepingPipeline local = new SleepingPipeline(1);
+    final StanfordCoreNLPService svc = new StanfordCoreNLPService.Builder(local)
+        .remote(new StanfordCoreNLPClientSimple.Builder(StanfordCoreNLPService.sanitizeProps(null))
+            .hosts(server.getHost(), server.getPort()).healthCheckInterval(0).build(), 1000, 1)
+        .build();
+
+    final List<String> texts = Arrays.asList("First text.", "Second text.", "Third text.");
+    for (final CompletableFuture<Map<String, List<String>>> result : svc.extractEntities(texts,
+        Collections.nCopies(texts.size(), "location"))) {
+      result.join();
+    }
+
+    assertEquals(1, local.annotated.get());
+    assertEquals(2, server.getRequests());
+    assertEquals(1, svc.getRoutedLocal());
+    assertEquals(2, svc.getRoutedRemote());
+
+    svc.shutdown();
+  }
+
+  @Test
+  public void testConcurrentCallersScale() throws Exception {
+    final BarrierPipeline pipeline = new BarrierPipeline(4);
+    final StanfordCoreNLPService svc = new StanfordCoreNLPService.Builder(pipeline).maxConcurrency(8).build();
+
+    // every document waits for four to be annotated at once, which only happens if the callers run in parallel
+    extractConcurrently(svc, 4, 1);
+    assertEquals(4, pipeline.met.get());
+  }
+
+  @Test
+  public void testConcurrencyIsBounded() throws Exception {
+    final SleepingPipeline pipeline = new SleepingPipeline(5);
+    final StanfordCoreNLPService svc = new StanfordCoreNLPService.Builder(pipeline).maxConcurrency(2).build();
+
+    extractConcurrently(svc, 8, 4);
+    assertEquals(32, pipeline.annotated.get());
+    assertTrue(pipeline.peak.get() <= 2);
+  }
+
+  @Test
+  public void testDuplicatesInBatchAreAnnotatedOnce() {
+    final SleepingPipeline pipeline = new SleepingPipeline(0);
+    final StanfordCoreNLPService svc = new StanfordCoreNLPService.Builder(pipeline).build();
+    final List<String> texts = Arrays.asList("Same text.", "Same text.", "Other text.");
+    final List<String> types = Collections.nCopies(texts.size(), "location");
+
+    final List<CompletableFuture<Map<String, List<String>>>> results = svc.extractEntities(texts, types);
+    assertEquals(2, pipeline.annotated.get());
+    assertEquals(results.get(0).join(), results.get(1).join());
+
+    final EntityCache cache = new EntityCache(10, 1024 * 1024, 0);
+    final StanfordCoreNLPService cached = new StanfordCoreNLPService.Builder(pipeline).cache(cache).build();
+    cached.extractEntities(texts, types);
+    assertEquals(4, pipeline.annotated.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void testPruneProps() {
+    final Properties props = new Properties();
+    props.setProperty("annotators", "tokenize,ssplit,pos,lemma,ner,parse,depparse,coref");
+    props.setProperty("ner.applyNumericClassifiers", "true");
+
+    final Properties pruned = StanfordCoreNLPService.pruneProps(props, "organization,person");
+    assertEquals("tokenize,ssplit,pos,lemma,ner", pruned.getProperty("annotators"));
+    assertEquals("false", pruned.getProperty("ner.useSUTime"));
+    assertEquals("true", pruned.getProperty("ner.applyNumericClassifiers"));
+    assertEquals("false", pruned.getProperty("ner.applyFineGrained"));
+
+    final Properties withDates = StanfordCoreNLPService.pruneProps(null, "location,date");
+    assertEquals("tokenize,ssplit,pos,lemma,ner", withDates.getProperty("annotators"));
+    assertNull(withDates.getProperty("ner.useSUTime"));
+    assertNull(withDates.getProperty("ner.applyNumericClassifiers"));
+    assertNull(withDates.getProperty("ner.applyFineGrained"));
+  }
+
+  /**
+   * Extracts entities from the given number of callers at once, each with its
+   * own texts, returning once they are all done.
+   */
+  private static void extractConcurrently(final StanfordCoreNLPService svc, final int callers, final int texts)
+      throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(callers);
+    try {
+      final List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int c = 0; c < callers; c++) {
+        final int caller = c;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < texts; i++) {
+            svc.extractEntities("Text " + i + " of caller " + caller + ".", "location");
+          }
+        }));
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Stands in for a local pipeline, taking a fixed time per document and
+   * keeping track of how many it annotated at once.
+   */
+  private static class SleepingPipeline extends AnnotationPipeline {
+    private final long millis;
+    private final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger peak = new AtomicInteger();
+    final AtomicInteger annotated = new AtomicInteger();
+
+    SleepingPipeline(final long millis) {
+      this.millis = millis;
+    }
+
+    @Override
+    public void annotate(final Annotation annotation) {
+      final int now = active.incrementAndGet();
+      peak.accumulateAndGet(now, Math::max);
+      try {
+        Thread.sleep(millis);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        active.decrementAndGet();
+        annotated.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Stands in for a local pipeline whose documents each wait, up to a
+   * timeout, until the given number of them are being annotated at once.
+   */
+  private static class BarrierPipeline extends AnnotationPipeline {
+    private final CountDownLatch arrived;
+    final AtomicInteger met = new AtomicInteger();
+
+    BarrierPipeline(final int parties) {
+      this.arrived = new CountDownLatch(parties);
+    }
+
+    @Override
+    public void annotate(final Annotation annotation) {
+      arrived.countDown();
+      try {
+        if (arrived.await(10, TimeUnit.SECONDS)) {
+          met.incrementAndGet();
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
 }
@@ -0,0 +1,296 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+import edu.stanford.nlp.pipeline.ProtobufAnnotationSerializer;
+
+/**
+ * Stands in for a CoreNLP server on an ephemeral loopback port, speaking the
+ * serialized protocol buffer format {@link StanfordCoreNLPClientSimple} uses.
+ * Documents are annotated in process, by a pipeline built from the properties
+ * each request carries or by the one given. Latency and failures can be
+ * injected to see how the client copes.
+ */
+public class StubCoreNLPServer implements Closeable {
+  private static final Gson GSON = new Gson();
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final AnnotationPipeline pipeline;
+  private final Map<String, AnnotationPipeline> pipelines = new ConcurrentHashMap<>();
+  private final ProtobufAnnotationSerializer serializer = new ProtobufAnnotationSerializer(true);
+  private final Random random = new Random(42);
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger failuresLeft = new AtomicInteger();
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger peak = new AtomicInteger();
+  private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger gzippedRequests = new AtomicInteger();
+  private final AtomicInteger gzippedResponses = new AtomicInteger();
+  private volatile long latencyMillis;
+  private volatile double failureRate;
+  private volatile int failureStatus = 503;
+  private volatile long retryAfterSeconds;
+  private volatile boolean alive = true;
+  private volatile long liveLatencyMillis;
+
+  /**
+   * @param threads The number of documents annotated at once, like the server's -threads
+   */
+  public StubCoreNLPServer(int threads) throws IOException {
+    this(null, threads);
+  }
+
+  /**
+   * @param pipeline Annotates every document whatever the request properties, or null to build
+   *                 a {@link edu.stanford.nlp.pipeline.StanfordCoreNLP} per distinct properties
+   * @param threads The number of documents annotated at once, like the server's -threads
+   */
+  public StubCoreNLPServer(AnnotationPipeline pipeline, int threads) throws IOException {
+    this.pipeline = pipeline;
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, StubCoreNLPServer.class.getSimpleName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.server.createContext("/live", this::live);
+    this.server.createContext("/", this::annotate);
+    this.server.setExecutor(executor);
+    this.server.start();
+  }
+
+  /** The host to hand the client, with its protocol but without the port. */
+  public String getHost() {
+    return "http://" + server.getAddress().getAddress().getHostAddress();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /** The number of annotation requests received, failed ones included. */
+  public int getRequests() {
+    return requests.get();
+  }
+
+  /** The number of annotation requests that came in gzipped. */
+  public int getGzippedRequests() {
+    return gzippedRequests.get();
+  }
+
+  /** The number of annotation responses that were sent gzipped. */
+  public int getGzippedResponses() {
+    return gzippedResponses.get();
+  }
+
+  /** The number of distinct connections annotation requests came in on. */
+  public int getConnections() {
+    return connections.size();
+  }
+
+  /** The most annotation requests that were being answered at once. */
+  public int getPeakConcurrency() {
+    return peak.get();
+  }
+
+  /** How long every annotation request waits before it is answered. */
+  public void setLatency(long millis) {
+    this.latencyMillis = millis;
+  }
+
+  /** Answers the given fraction of annotation requests with the status, at random. */
+  public void setFailureRate(double rate, int status) {
+    this.failureRate = rate;
+    this.failureStatus = status;
+  }
+
+  /** Answers the next count annotation requests with the status. */
+  public void failNext(int count, int status) {
+    this.failureStatus = status;
+    this.failuresLeft.set(count);
+  }
+
+  /** Sends the Retry-After header with injected failures, or not when 0. */
+  public void setRetryAfter(long seconds) {
+    this.retryAfterSeconds = seconds;
+  }
+
+  /** Whether the liveness endpoint answers 200, or 503 as a server that is down behind a proxy. */
+  public void setAlive(boolean alive) {
+    this.alive = alive;
+  }
+
+  /** How long the liveness endpoint waits before it answers. */
+  public void setLiveLatency(long millis) {
+    this.liveLatencyMillis = millis;
+  }
+
+  /** Clears the injected latency and failures and the request count. */
+  public void reset() {
+    latencyMillis = 0;
+    liveLatencyMillis = 0;
+    failureRate = 0;
+    retryAfterSeconds = 0;
+    alive = true;
+    failuresLeft.set(0);
+    requests.set(0);
+    peak.set(0);
+    connections.clear();
+    gzippedRequests.set(0);
+    gzippedResponses.set(0);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void live(HttpExchange exchange) throws IOException {
+    if (liveLatencyMillis > 0) {
+      try {
+        Thread.sleep(liveLatencyMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    respond(exchange, alive ? 200 : 503, new byte[0]);
+  }
+
+  private void annotate(HttpExchange exchange) throws IOException {
+    peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        respond(exchange, 405, new byte[0]);
+        return;
+      }
+      requests.incrementAndGet();
+      connections.add(exchange.getRemoteAddress());
+      if (latencyMillis > 0) {
+        Thread.sleep(latencyMillis);
+      }
+      if (failuresLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0 || shouldFail()) {
+        if (retryAfterSeconds > 0) {
+          exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+        }
+        respond(exchange, failureStatus, new byte[0]);
+        return;
+      }
+
+      InputStream in = exchange.getRequestBody();
+      if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+        in = new GZIPInputStream(in);
+        gzippedRequests.incrementAndGet();
+      }
+      Annotation annotation = serializer.read(in).first;
+      pipelineFor(exchange.getRequestURI().getRawQuery()).annotate(annotation);
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+      if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        gzippedResponses.incrementAndGet();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(os)) {
+          serializer.write(annotation, gzip);
+        }
+      } else {
+        serializer.write(annotation, os);
+      }
+      exchange.getResponseHeaders().set("Content-Type", "application/x-protobuf");
+      respond(exchange, 200, os.toByteArray());
+    } catch (Exception e) {
+      respond(exchange, 500, String.valueOf(e).getBytes(StandardCharsets.UTF_8));
+    } finally {
+      active.decrementAndGet();
+    }
+  }
+
+  private synchronized boolean shouldFail() {
+    return failureRate > 0 && random.nextDouble() < failureRate;
+  }
+
+  /** The pipeline for the properties=... query parameter, built once per distinct value. */
+  private AnnotationPipeline pipelineFor(String query) throws IOException {
+    if (pipeline != null) {
+      return pipeline;
+    }
+    String json = "{}";
+    if (query != null) {
+      for (String param : query.split("&")) {
+        if (param.startsWith("properties=")) {
+          json = URLDecoder.decode(param.substring("properties=".length()), "utf-8");
+        }
+      }
+    }
+    return pipelines.computeIfAbsent(json, key -> {
+      Map<?, ?> requested = GSON.fromJson(key, Map.class);
+      Properties props = new Properties();
+      for (Map.Entry<?, ?> entry : requested.entrySet()) {
+        // The wire format is fixed, the pipeline only needs to know what to annotate
+        String name = String.valueOf(entry.getKey());
+        if (!name.endsWith("Format") && !name.endsWith("Serializer")) {
+          props.setProperty(name, String.valueOf(entry.getValue()));
+        }
+      }
+      return StanfordCoreNLPService.createPipeline(props);
+    });
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.processors.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TextChunkerTest {
+
+  private static final String TEXT = "First sentence here. Second one is a bit longer than that.\n\n"
+      + "New paragraph starts. It has two sentences.";
+
+  @Test
+  public void testShortTextIsNotSplit() {
+    final List<String> chunks = TextChunker.split(TEXT, 1000);
+    assertEquals(1, chunks.size());
+    assertEquals(TEXT, chunks.get(0));
+  }
+
+  @Test
+  public void testDisabled() {
+    assertEquals(1, TextChunker.split(TEXT, 0).size());
+  }
+
+  @Test
+  public void testSplitsAtParagraph() {
+    final List<String> chunks = TextChunker.split(TEXT, 70);
+    assertEquals(2, chunks.size());
+    assertEquals("First sentence here. Second one is a bit longer than that.\n\n", chunks.get(0));
+    assertEquals("New paragraph starts. It has two sentences.", chunks.get(1));
+  }
+
+  @Test
+  public void testSplitsAtSentences() {
+    final List<String> chunks = TextChunker.split(TEXT, 50);
+    assertEquals("First sentence here. ", chunks.get(0));
+    assertEquals(TEXT, String.join("", chunks));
+    for (final String chunk : chunks) {
+      assertTrue(chunk.length() <= 50);
+    }
+  }
+
+  @Test
+  public void testSplitsLongSentenceAtWhitespace() {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      text.append("word ");
+    }
+    final List<String> chunks = TextChunker.split(text.toString(), 32);
+    assertEquals(text.toString(), String.join("", chunks));
+    for (final String chunk : chunks) {
+      assertTrue(chunk.length() <= 32);
+      assertTrue(chunk.endsWith(" "));
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testLongTextWithoutParagraphs() throws IOException {
+    // each chunk may only look back over its own text, or splitting megabytes takes quadratic time
+    final StringBuilder text = new StringBuilder();
+    while (text.length() < 4 * 1024 * 1024) {
+      text.append("One sentence follows another without a blank line. ");
+    }
+    final List<String> chunks = TextChunker.split(text.toString(), 2000);
+    assertEquals(text.toString(), String.join("", chunks));
+    for (final String chunk : chunks) {
+      assertTrue(chunk.length() <= 2000);
+    }
+
+    final List<String> read = new ArrayList<String>();
+    try (final TextChunker.ChunkReader reader = new TextChunker.ChunkReader(new StringReader(text.toString()), 2000)) {
+      String chunk;
+      while ((chunk = reader.next()) != null) {
+        read.add(chunk);
+      }
+    }
+    assertEquals(chunks, read);
+  }
+
+  @Test
+  public void testChunkReaderMatchesSplit() throws IOException {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      text.append(TEXT).append(i % 3 == 0 ? "\n\n" : " ");
+    }
+    for (final int maxLength : new int[] { 70, 500, 100000 }) {
+      final List<String> chunks = new ArrayList<String>();
+      try (final TextChunker.ChunkReader reader = new TextChunker.ChunkReader(new StringReader(text.toString()), maxLength)) {
+        String chunk;
+        while ((chunk = reader.next()) != null) {
+          assertTrue(chunk.length() <= maxLength);
+          chunks.add(chunk);
+        }
+      }
+      assertEquals(text.toString(), String.join("", chunks));
+      assertEquals(TextChunker.split(text.toString(), maxLength), chunks);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.services.stanfordcorenlp;
+
+import java.util.Properties;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.controller.ControllerService;
+
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+
+@Tags({ "Stanford", "CoreNLP" })
+@CapabilityDescription("Provides local StanfordCoreNLP pipelines that are shared between all processors configured with the same properties")
+public interface StanfordCoreNLPPipelineService extends ControllerService {
+
+    /**
+     * Returns the pipeline for the given properties, loading its models if no
+     * other processor is currently holding a pipeline with equal properties.
+     * Every call must be paired with a call to {@link #release(AnnotationPipeline)}.
+     *
+     * @param props The sanitized properties to configure the StanfordCoreNLP object
+     * @return The shared pipeline
+     */
+    AnnotationPipeline acquire(Properties props);
+
+    /**
+     * Gives back a pipeline returned by {@link #acquire(Properties)}. Once the last
+     * holder releases it, the pipeline and its models are dropped.
+     *
+     * @param pipeline The pipeline to release
+     */
+    void release(AnnotationPipeline pipeline);
+}
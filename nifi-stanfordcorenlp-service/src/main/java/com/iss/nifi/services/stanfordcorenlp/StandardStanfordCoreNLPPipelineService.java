@@ -0,0 +1,146 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.services.stanfordcorenlp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.controller.AbstractControllerService;
+
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+
+@Tags({ "Stanford", "CoreNLP" })
+@CapabilityDescription("Loads local StanfordCoreNLP pipelines once and shares them, reference counted, between all processors configured with the same properties")
+public class StandardStanfordCoreNLPPipelineService extends AbstractControllerService implements StanfordCoreNLPPipelineService {
+
+    private final Map<String, SharedPipeline> pipelines = new HashMap<String, SharedPipeline>();
+
+    /**
+     * Returns the pipeline for the properties, loading it on first use. The
+     * models are loaded outside the lock, so only callers that need the same
+     * pipeline wait for them; the others acquire and release meanwhile.
+     */
+    @Override
+    public AnnotationPipeline acquire(final Properties props) {
+        final String key = normalize(props);
+
+        final SharedPipeline shared;
+        final boolean load;
+        synchronized (this) {
+            SharedPipeline existing = pipelines.get(key);
+            load = existing == null;
+            if (load) {
+                existing = new SharedPipeline();
+                pipelines.put(key, existing);
+            }
+            existing.references++;
+            shared = existing;
+        }
+
+        if (load) {
+            try {
+                shared.pipeline.complete(new StanfordCoreNLP(props));
+            } catch (final RuntimeException | Error e) {
+                // the next caller loads again rather than get the same failure
+                synchronized (this) {
+                    pipelines.remove(key, shared);
+                }
+                shared.pipeline.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return shared.pipeline.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void release(final AnnotationPipeline pipeline) {
+        final Iterator<Map.Entry<String, SharedPipeline>> it = pipelines.entrySet().iterator();
+        while (it.hasNext()) {
+            final SharedPipeline shared = it.next().getValue();
+            if (shared.pipeline.getNow(null) != pipeline) {
+                continue;
+            }
+
+            shared.references--;
+            if (shared.references <= 0) {
+                it.remove();
+                // StanfordCoreNLP keeps its own static annotator cache, shared by every pipeline with the
+                // same annotator settings, so it is only cleared once none of ours is left to use it
+                if (pipelines.isEmpty()) {
+                    StanfordCoreNLP.clearAnnotatorPool();
+                }
+            }
+            return;
+        }
+    }
+
+    @OnDisabled
+    public synchronized void onDisabled() {
+        pipelines.clear();
+        StanfordCoreNLP.clearAnnotatorPool();
+    }
+
+    synchronized int getPipelineCount() {
+        return pipelines.size();
+    }
+
+    /**
+     * Builds a key that is identical for properties with the same entries,
+     * regardless of insertion order.
+     */
+    static String normalize(final Properties props) {
+        final Map<String, String> sorted = new TreeMap<String, String>();
+        if (props != null) {
+            for (final String k : props.stringPropertyNames()) {
+                sorted.put(k.trim(), props.getProperty(k).trim());
+            }
+        }
+        return sorted.toString();
+    }
+
+    private static final class SharedPipeline {
+        // completed by the caller that loads it, the others wait on it outside the lock
+        private final CompletableFuture<AnnotationPipeline> pipeline = new CompletableFuture<AnnotationPipeline>();
+        private int references;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * 
+ * MIT License
+ *
+ * Copyright (c) 2020 Institutional Shareholder Services. All other rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.iss.nifi.services.stanfordcorenlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+
+public class StandardStanfordCoreNLPPipelineServiceTest {
+
+    private static Properties props(final String annotators) {
+        final Properties props = new Properties();
+        props.setProperty("annotators", annotators);
+        props.setProperty("threads", "1");
+        return props;
+    }
+
+    @Test
+    public void testSharesPipelinesWithEqualProps() {
+        final StandardStanfordCoreNLPPipelineService svc = new StandardStanfordCoreNLPPipelineService();
+
+        final AnnotationPipeline first = svc.acquire(props("tokenize,ssplit"));
+        final AnnotationPipeline second = svc.acquire(props("tokenize,ssplit"));
+        final AnnotationPipeline other = svc.acquire(props("tokenize"));
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(2, svc.getPipelineCount());
+
+        svc.release(first);
+        assertEquals(2, svc.getPipelineCount());
+        svc.release(second);
+        assertEquals(1, svc.getPipelineCount());
+        svc.release(other);
+        assertEquals(0, svc.getPipelineCount());
+    }
+
+    @Test
+    public void testConcurrentAcquiresShareOneLoad() throws Exception {
+        final StandardStanfordCoreNLPPipelineService svc = new StandardStanfordCoreNLPPipelineService();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<AnnotationPipeline> first = executor.submit(() -> svc.acquire(props("tokenize,ssplit")));
+            final Future<AnnotationPipeline> second = executor.submit(() -> svc.acquire(props("tokenize,ssplit")));
+            assertSame(first.get(), second.get());
+            assertEquals(1, svc.getPipelineCount());
+
+            svc.release(first.get());
+            svc.release(second.get());
+            assertEquals(0, svc.getPipelineCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsNotShared() {
+        final StandardStanfordCoreNLPPipelineService svc = new StandardStanfordCoreNLPPipelineService();
+        for (int i = 0; i < 2; i++) {
+            try {
+                svc.acquire(props("tokenize,nosuchannotator"));
+                fail("Loaded a pipeline with an unknown annotator");
+            } catch (final RuntimeException e) {
+                assertEquals(0, svc.getPipelineCount());
+            }
+        }
+    }
+}